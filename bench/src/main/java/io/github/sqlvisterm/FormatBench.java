@@ -0,0 +1,60 @@
+package io.github.sqlvisterm;
+
+import org.jline.terminal.Terminal;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting the numbers of the statistics and the cells of the table, one call per operation over a mix of
+ * small, large, negative and fractional values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatBench {
+    private static final int VALUES = 1024;
+
+    private Terminal terminal;
+    private SQLEngine se;
+    private SQLEngine.QueryResult qr;
+    private final long[] longs = new long[VALUES];
+    private final double[] doubles = new double[VALUES];
+
+    @Setup
+    public void setup() throws IOException, SQLException {
+        terminal = QueryResultBench.nullTerminal();
+        se = QueryResultBench.engine(terminal);
+        qr = se.new QueryResult(new SyntheticResultSet(1, 1).open());
+        Random random = new Random(7);
+        for (int i = 0; i < VALUES; i++) {
+            longs[i] = random.nextLong() >> random.nextInt(64);
+            doubles[i] = random.nextGaussian() * Math.pow(10, random.nextInt(20) - 8);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        se.shutdown();
+        terminal.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void formatLong(Blackhole bh) {
+        for (long l : longs) bh.consume(qr.format(l));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void formatDouble(Blackhole bh) {
+        for (double d : doubles) bh.consume(qr.format(d));
+    }
+}
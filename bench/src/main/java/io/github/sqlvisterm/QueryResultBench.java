@@ -0,0 +1,109 @@
+package io.github.sqlvisterm;
+
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+import org.jline.terminal.impl.DumbTerminal;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hot paths of a query: reading the rows into a QueryResult, calculating the statistics and rendering the
+ * table, at several result sizes. The table is written to a terminal which throws the output away, so
+ * rendering includes building the lines and encoding them but not the speed of a real terminal. Run with
+ * -prof gc to see the allocation rate of each path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class QueryResultBench {
+    @Param({"1000", "100000"})
+    int rows;
+
+    @Param({"5", "20"})
+    int cols;
+
+    private Terminal terminal;
+    private SQLEngine se;
+    private SyntheticResultSet data;
+    private SQLEngine.QueryResult qr;
+
+    @Setup
+    public void setup() throws IOException, SQLException {
+        terminal = nullTerminal();
+        se = engine(terminal);
+        data = new SyntheticResultSet(rows, cols);
+        qr = se.new QueryResult(data.open());
+    }
+
+    /**
+     * A terminal of 200 by 50 characters which throws the output away.
+     */
+    static Terminal nullTerminal() throws IOException {
+        Terminal terminal = new DumbTerminal("bench", "dumb", new ByteArrayInputStream(new byte[0]), new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }, StandardCharsets.UTF_8);
+        terminal.setSize(new Size(200, 50));
+        return terminal;
+    }
+
+    /**
+     * An engine without a connection, query log, result cache or spill files.
+     */
+    static SQLEngine engine(Terminal terminal) {
+        Properties ini = new Properties();
+        ini.setProperty("logmode", "off");
+        ini.setProperty("cachesize", "0");
+        ini.setProperty("diskcache", "0");
+        ini.setProperty("spillbytes", "0");
+        Map<String, Properties> sections = new LinkedHashMap<>();
+        sections.put("", ini);
+        return new SQLEngine(terminal, sections);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        qr.close();
+        se.shutdown();
+        terminal.close();
+    }
+
+    @Benchmark
+    public Object ingest() throws SQLException {
+        SQLEngine.QueryResult result = se.new QueryResult(data.open());
+        result.close();
+        return result;
+    }
+
+    /**
+     * Computes the statistics from the column store and formats them. They are kept with the result once
+     * computed, so they are dropped before every call.
+     */
+    @Benchmark
+    public void calcStats() {
+        qr.resetStats();
+        qr.calcStats();
+    }
+
+    @Benchmark
+    public void render() {
+        qr.render(false, false);
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.sqlvisterm;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.Random;
+
+/**
+ * An in-memory result set of generated rows, so the benchmarks measure the program and not a driver. The
+ * columns cycle through integer, double, text, bigint and boolean, and about one value in twenty is null. The
+ * values are generated once and every {@link #open} walks them again from the first row.
+ */
+class SyntheticResultSet {
+    private static final int[] TYPES = {Types.INTEGER, Types.DOUBLE, Types.VARCHAR, Types.BIGINT, Types.BOOLEAN};
+    private static final String[] WORDS = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf",
+            "hotel", "india", "juliett", "kilo", "lima", "mike", "november", "oscar", "papa"};
+
+    final int rows, cols;
+    private final int[] types;
+    private final Object[][] values;     // [column][row], null for a null value
+
+    SyntheticResultSet(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        types = new int[cols];
+        values = new Object[cols][rows];
+        Random random = new Random(42);
+        for (int c = 0; c < cols; c++) {
+            types[c] = TYPES[c % TYPES.length];
+            for (int r = 0; r < rows; r++) {
+                if (random.nextInt(20) == 0) continue;
+                switch (types[c]) {
+                    case Types.INTEGER:
+                        values[c][r] = (long) random.nextInt(100_000);
+                        break;
+                    case Types.DOUBLE:
+                        values[c][r] = random.nextGaussian() * 1000;
+                        break;
+                    case Types.VARCHAR:
+                        values[c][r] = WORDS[random.nextInt(WORDS.length)] + ' ' + random.nextInt(1000);
+                        break;
+                    case Types.BIGINT:
+                        values[c][r] = 1_600_000_000_000L + r * 1000L + random.nextInt(1000);
+                        break;
+                    default:
+                        values[c][r] = random.nextBoolean();
+                }
+            }
+        }
+    }
+
+    /**
+     * A new cursor before the first row. Only the methods QueryResult calls are implemented.
+     */
+    ResultSet open() {
+        ResultSetMetaData md = (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ResultSetMetaData.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return cols;
+                        case "getColumnName":
+                        case "getColumnLabel":
+                            return "col" + args[0];
+                        case "getColumnType":
+                            return types[(Integer) args[0] - 1];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        int[] row = {-1};
+        boolean[] wasNull = {false};
+        return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next":
+                            return ++row[0] < rows;
+                        case "getMetaData":
+                            return md;
+                        case "wasNull":
+                            return wasNull[0];
+                        case "close":
+                            return null;
+                        case "isClosed":
+                            return false;
+                        case "getFetchSize":
+                            return 0;
+                        case "getLong":
+                        case "getInt":
+                            Object l = value((Integer) args[0], row[0], wasNull);
+                            return l == null ? 0L : ((Number) l).longValue();
+                        case "getDouble":
+                            Object d = value((Integer) args[0], row[0], wasNull);
+                            return d == null ? 0d : ((Number) d).doubleValue();
+                        case "getBoolean":
+                            Object b = value((Integer) args[0], row[0], wasNull);
+                            return b != null && (Boolean) b;
+                        case "getString":
+                            Object s = value((Integer) args[0], row[0], wasNull);
+                            return s == null ? null : s.toString();
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private Object value(int column, int row, boolean[] wasNull) {
+        Object v = values[column - 1][row];
+        wasNull[0] = v == null;
+        return v;
+    }
+}
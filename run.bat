@@ -1 +1,13 @@
-java -cp "lib/*" io.github.sqlvisterm.Example +system
\ No newline at end of file
+@echo off
+rem Runs the jar built by "mvn -B package", with the class data sharing archive of "mvn -B package -Pcds"
+rem when there is one. The jar in lib is an old build without the current sources, so it is not used.
+set DIR=%~dp0
+if not exist "%DIR%target\SQLVisTerm.jar" (
+    echo %DIR%target\SQLVisTerm.jar not found, run mvn -B package first
+    pause
+    exit /b 1
+) else if exist "%DIR%target\SQLVisTerm.jsa" (
+    java -XX:SharedArchiveFile="%DIR%target\SQLVisTerm.jsa" -jar "%DIR%target\SQLVisTerm.jar" +system
+) else (
+    java -jar "%DIR%target\SQLVisTerm.jar" +system
+)
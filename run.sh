@@ -1 +1,14 @@
-java -cp "lib/*" io.github.sqlvisterm.Example +system
\ No newline at end of file
+#!/bin/sh
+# Runs the jar built by "mvn -B package", with the class data sharing archive of "mvn -B package -Pcds"
+# when there is one. The jar in lib is an old build without the current sources, so it is not used.
+DIR=$(dirname "$0")
+JAR="$DIR/target/SQLVisTerm.jar"
+CDS="$DIR/target/SQLVisTerm.jsa"
+if [ ! -f "$JAR" ]; then
+    echo "$JAR not found, run mvn -B package first" >&2
+    exit 1
+elif [ -f "$CDS" ]; then
+    exec java -XX:SharedArchiveFile="$CDS" -jar "$JAR" +system
+else
+    exec java -jar "$JAR" +system
+fi
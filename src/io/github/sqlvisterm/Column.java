@@ -0,0 +1,357 @@
+package io.github.sqlvisterm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One column of a query result stored as primitive values in fixed size chunks.
+ * Chunks are allocated as the column grows so a big result never has to copy
+ * its data into a larger array. Nulls are tracked in a separate bitmap which is
+ * only allocated for the chunks that actually contain a null.
+ * <p>
+ * Complete chunks can be moved to a {@link SpillFile} when a result gets too big
+ * for the heap. They are then read through buffer views of the mapped file.
+ */
+abstract class Column {
+    static final int CHUNK_SHIFT = 12;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private long[][] nulls = new long[16][];
+    int size;
+    int nullCount;
+
+    final boolean isNull(int row) {
+        if (nullCount == 0) return false;
+        int ci = row >>> CHUNK_SHIFT;
+        if (ci >= nulls.length) return false;
+        long[] bits = nulls[ci];
+        return bits != null && (bits[(row & CHUNK_MASK) >>> 6] & (1L << row)) != 0;
+    }
+
+    final int size() {
+        return size;
+    }
+
+    abstract void addNull();
+
+    /**
+     * Empties the column but keeps the allocated chunks for reuse.
+     */
+    void clear() {
+        for (int i = 0; i < nulls.length; i++) nulls[i] = null;
+        size = 0;
+        nullCount = 0;
+    }
+
+    /**
+     * Moves the complete chunks which are still on the heap to the spill file.
+     */
+    abstract void spill(SpillFile file) throws IOException;
+
+    /**
+     * Approximate number of bytes held by this column on the heap.
+     */
+    abstract long estimateBytes();
+
+    final void markNull(int row) {
+        int ci = row >>> CHUNK_SHIFT;
+        if (ci >= nulls.length) nulls = Arrays.copyOf(nulls, Math.max(ci + 1, nulls.length * 2));
+        long[] bits = nulls[ci];
+        if (bits == null) nulls[ci] = bits = new long[CHUNK_SIZE >>> 6];
+        bits[(row & CHUNK_MASK) >>> 6] |= 1L << row;
+        nullCount++;
+    }
+
+    final long nullBytes() {
+        long bytes = 16L + nulls.length * 8L;
+        for (long[] bits : nulls) {
+            if (bits != null) bytes += 16L + bits.length * 8L;
+        }
+        return bytes;
+    }
+
+    /**
+     * Number of chunks still on the heap.
+     */
+    static int heapChunks(Object[] chunks) {
+        int n = 0;
+        for (Object chunk : chunks) {
+            if (chunk != null) n++;
+        }
+        return n;
+    }
+
+    static final class Longs extends Column {
+        private long[][] chunks = new long[16][];
+        private LongBuffer[] spilled = new LongBuffer[16];
+
+        void add(long val) {
+            int ci = size >>> CHUNK_SHIFT;
+            if (ci == chunks.length) {
+                chunks = Arrays.copyOf(chunks, ci * 2);
+                spilled = Arrays.copyOf(spilled, ci * 2);
+            }
+            long[] chunk = chunks[ci];
+            if (chunk == null) chunks[ci] = chunk = new long[CHUNK_SIZE];
+            chunk[size & CHUNK_MASK] = val;
+            size++;
+        }
+
+        @Override
+        void addNull() {
+            markNull(size);
+            add(0L);
+        }
+
+        long get(int row) {
+            long[] chunk = chunks[row >>> CHUNK_SHIFT];
+            if (chunk != null) return chunk[row & CHUNK_MASK];
+            return spilled[row >>> CHUNK_SHIFT].get(row & CHUNK_MASK);
+        }
+
+        @Override
+        void clear() {
+            Arrays.fill(spilled, null);
+            super.clear();
+        }
+
+        @Override
+        void spill(SpillFile file) throws IOException {
+            for (int ci = 0; ci < size >>> CHUNK_SHIFT; ci++) {
+                if (chunks[ci] == null) continue;
+                spilled[ci] = file.write(chunks[ci]);
+                chunks[ci] = null;
+            }
+        }
+
+        @Override
+        long estimateBytes() {
+            return nullBytes() + 16L + chunks.length * 16L + heapChunks(chunks) * (16L + CHUNK_SIZE * 8L);
+        }
+    }
+
+    static final class Doubles extends Column {
+        private double[][] chunks = new double[16][];
+        private DoubleBuffer[] spilled = new DoubleBuffer[16];
+
+        void add(double val) {
+            int ci = size >>> CHUNK_SHIFT;
+            if (ci == chunks.length) {
+                chunks = Arrays.copyOf(chunks, ci * 2);
+                spilled = Arrays.copyOf(spilled, ci * 2);
+            }
+            double[] chunk = chunks[ci];
+            if (chunk == null) chunks[ci] = chunk = new double[CHUNK_SIZE];
+            chunk[size & CHUNK_MASK] = val;
+            size++;
+        }
+
+        @Override
+        void addNull() {
+            markNull(size);
+            add(0d);
+        }
+
+        double get(int row) {
+            double[] chunk = chunks[row >>> CHUNK_SHIFT];
+            if (chunk != null) return chunk[row & CHUNK_MASK];
+            return spilled[row >>> CHUNK_SHIFT].get(row & CHUNK_MASK);
+        }
+
+        @Override
+        void clear() {
+            Arrays.fill(spilled, null);
+            super.clear();
+        }
+
+        @Override
+        void spill(SpillFile file) throws IOException {
+            for (int ci = 0; ci < size >>> CHUNK_SHIFT; ci++) {
+                if (chunks[ci] == null) continue;
+                spilled[ci] = file.write(chunks[ci]);
+                chunks[ci] = null;
+            }
+        }
+
+        @Override
+        long estimateBytes() {
+            return nullBytes() + 16L + chunks.length * 16L + heapChunks(chunks) * (16L + CHUNK_SIZE * 8L);
+        }
+    }
+
+    static final class Bools extends Column {
+        private long[][] chunks = new long[16][];
+        private LongBuffer[] spilled = new LongBuffer[16];
+
+        void add(boolean val) {
+            int ci = size >>> CHUNK_SHIFT;
+            if (ci == chunks.length) {
+                chunks = Arrays.copyOf(chunks, ci * 2);
+                spilled = Arrays.copyOf(spilled, ci * 2);
+            }
+            long[] chunk = chunks[ci];
+            if (chunk == null) chunks[ci] = chunk = new long[CHUNK_SIZE >>> 6];
+            if (val) chunk[(size & CHUNK_MASK) >>> 6] |= 1L << size;
+            size++;
+        }
+
+        @Override
+        void addNull() {
+            markNull(size);
+            add(false);
+        }
+
+        boolean get(int row) {
+            long[] chunk = chunks[row >>> CHUNK_SHIFT];
+            long bits = chunk != null ? chunk[(row & CHUNK_MASK) >>> 6]
+                    : spilled[row >>> CHUNK_SHIFT].get((row & CHUNK_MASK) >>> 6);
+            return (bits & (1L << row)) != 0;
+        }
+
+        @Override
+        void clear() {
+            for (long[] chunk : chunks) {
+                if (chunk != null) Arrays.fill(chunk, 0L);
+            }
+            Arrays.fill(spilled, null);
+            super.clear();
+        }
+
+        @Override
+        void spill(SpillFile file) throws IOException {
+            for (int ci = 0; ci < size >>> CHUNK_SHIFT; ci++) {
+                if (chunks[ci] == null) continue;
+                spilled[ci] = file.write(chunks[ci]);
+                chunks[ci] = null;
+            }
+        }
+
+        @Override
+        long estimateBytes() {
+            return nullBytes() + 16L + chunks.length * 16L + heapChunks(chunks) * (16L + (CHUNK_SIZE >>> 6) * 8L);
+        }
+    }
+
+    /**
+     * Dictionary encoded strings. Every row holds an int code into the dictionary so
+     * repeated values (country names, status codes etc.) are stored only once. Once
+     * the dictionary grows past {@link #MAX_DICTIONARY} distinct values the column
+     * stops looking values up and simply appends them, as hashing a column of unique
+     * values costs more than it saves. From then on the dictionary is chunked and
+     * spilled like the codes.
+     */
+    static final class Strings extends Column {
+        static final int MAX_DICTIONARY = 1 << 16;
+
+        private int[][] chunks = new int[16][];
+        private IntBuffer[] spilled = new IntBuffer[16];
+        private String[][] dict = new String[16][];
+        private ByteBuffer[] spilledDict = new ByteBuffer[16];
+        private int dictSize;
+        private Map<String, Integer> index = new HashMap<>();
+        private long dictBytes;
+        int maxLength;
+
+        void add(String val) {
+            int code;
+            Integer known = index != null ? index.get(val) : null;
+            if (known != null) {
+                code = known;
+            } else {
+                code = dictSize++;
+                int di = code >>> CHUNK_SHIFT;
+                if (di == dict.length) {
+                    dict = Arrays.copyOf(dict, di * 2);
+                    spilledDict = Arrays.copyOf(spilledDict, di * 2);
+                }
+                if (dict[di] == null) dict[di] = new String[CHUNK_SIZE];
+                dict[di][code & CHUNK_MASK] = val;
+                dictBytes += 40L + val.length() * 2L;
+                if (index != null) {
+                    index.put(val, code);
+                    if (index.size() > MAX_DICTIONARY) index = null;
+                }
+            }
+            if (val.length() > maxLength) maxLength = val.length();
+
+            int ci = size >>> CHUNK_SHIFT;
+            if (ci == chunks.length) {
+                chunks = Arrays.copyOf(chunks, ci * 2);
+                spilled = Arrays.copyOf(spilled, ci * 2);
+            }
+            int[] chunk = chunks[ci];
+            if (chunk == null) chunks[ci] = chunk = new int[CHUNK_SIZE];
+            chunk[size & CHUNK_MASK] = code;
+            size++;
+        }
+
+        @Override
+        void addNull() {
+            markNull(size);
+            add("");
+        }
+
+        String get(int row) {
+            return value(code(row));
+        }
+
+        int code(int row) {
+            int[] chunk = chunks[row >>> CHUNK_SHIFT];
+            return chunk != null ? chunk[row & CHUNK_MASK] : spilled[row >>> CHUNK_SHIFT].get(row & CHUNK_MASK);
+        }
+
+        String value(int code) {
+            String[] values = dict[code >>> CHUNK_SHIFT];
+            if (values != null) return values[code & CHUNK_MASK];
+            return SpillFile.read(spilledDict[code >>> CHUNK_SHIFT], code & CHUNK_MASK);
+        }
+
+        int dictSize() {
+            return dictSize;
+        }
+
+        @Override
+        void clear() {
+            for (String[] values : dict) {
+                if (values != null) Arrays.fill(values, null);
+            }
+            Arrays.fill(spilled, null);
+            Arrays.fill(spilledDict, null);
+            dictSize = 0;
+            dictBytes = 0;
+            index = new HashMap<>();
+            super.clear();
+        }
+
+        @Override
+        void spill(SpillFile file) throws IOException {
+            for (int ci = 0; ci < size >>> CHUNK_SHIFT; ci++) {
+                if (chunks[ci] == null) continue;
+                spilled[ci] = file.write(chunks[ci]);
+                chunks[ci] = null;
+            }
+            if (index != null) return;      // the index still holds every value
+            for (int di = 0; di < dictSize >>> CHUNK_SHIFT; di++) {
+                if (dict[di] == null) continue;
+                for (String val : dict[di]) dictBytes -= 40L + val.length() * 2L;
+                spilledDict[di] = file.write(dict[di], CHUNK_SIZE);
+                dict[di] = null;
+            }
+        }
+
+        @Override
+        long estimateBytes() {
+            long bytes = nullBytes() + 16L + chunks.length * 16L + heapChunks(chunks) * (16L + CHUNK_SIZE * 4L);
+            bytes += 16L + dict.length * 16L + heapChunks(dict) * (16L + CHUNK_SIZE * 8L) + dictBytes;
+            if (index != null) bytes += index.size() * 48L;
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package io.github.sqlvisterm;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Summary statistics of a column which can be computed for parts of the column and merged. The moments are
+ * merged with the pairwise formulas of Chan et al., quantiles come from a {@link TDigest} and the distinct
+ * count from a {@link HyperLogLog}, so a big column is split into ranges of chunks that are summarised on the
+ * fork-join pool and combined.
+ */
+final class ColumnStats {
+    private static final int LEAF = 16 * Column.CHUNK_SIZE;   // rows summarised by one task
+
+    long n;             // values which are not null
+    long nulls;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    private double mean, m2;
+    private TDigest digest;     // numeric columns only
+    private HyperLogLog distinct;
+
+    private ColumnStats(boolean numeric) {
+        digest = numeric ? new TDigest() : null;
+        distinct = new HyperLogLog();
+    }
+
+    /**
+     * Welford's update in the same order of operations as the SummaryStatistics used before, so a column
+     * summarised by one task prints the same mean and variance to the last digit.
+     */
+    private void add(double x) {
+        n++;
+        double dev = x - mean;
+        double nDev = dev / n;
+        mean += nDev;
+        m2 += (n - 1.0) * dev * nDev;
+        if (x < min) min = x;
+        if (x > max) max = x;
+        digest.add(x);
+    }
+
+    void merge(ColumnStats o) {
+        if (o.n > 0) {
+            long total = n + o.n;
+            double delta = o.mean - mean;
+            m2 += o.m2 + delta * delta * n / total * o.n;
+            mean += delta * o.n / total;
+            n = total;
+            if (o.min < min) min = o.min;
+            if (o.max > max) max = o.max;
+        }
+        nulls += o.nulls;
+        if (digest != null && o.digest != null) digest.merge(o.digest);
+        distinct.merge(o.distinct);
+    }
+
+    double mean() {
+        return n > 0 ? mean : Double.NaN;
+    }
+
+    /**
+     * Bias corrected sample variance.
+     */
+    double variance() {
+        return n == 0 ? Double.NaN : n == 1 ? 0 : m2 / (n - 1);
+    }
+
+    double populationVariance() {
+        return n == 0 ? Double.NaN : m2 / n;
+    }
+
+    double standardDeviation() {
+        return Math.sqrt(variance());
+    }
+
+    double quantile(double q) {
+        return digest != null ? digest.quantile(q) : Double.NaN;
+    }
+
+    long distinct() {
+        return distinct.estimate();
+    }
+
+    /**
+     * Summarises rows {@code [from, to)} of the column on the calling thread.
+     */
+    private static ColumnStats scan(Column col, int from, int to) {
+        ColumnStats s = new ColumnStats(col instanceof Column.Longs || col instanceof Column.Doubles);
+        if (col instanceof Column.Longs) {
+            Column.Longs lcol = (Column.Longs) col;
+            for (int r = from; r < to; r++) {
+                if (col.isNull(r)) continue;
+                long val = lcol.get(r);
+                s.add(val);
+                s.distinct.add(HyperLogLog.hash(val));
+            }
+        } else if (col instanceof Column.Doubles) {
+            Column.Doubles dcol = (Column.Doubles) col;
+            for (int r = from; r < to; r++) {
+                if (col.isNull(r)) continue;
+                double val = dcol.get(r);
+                s.add(val);
+                s.distinct.add(HyperLogLog.hash(Double.doubleToLongBits(val + 0.0)));    // -0.0 counts as 0.0
+            }
+        } else if (col instanceof Column.Bools) {
+            Column.Bools bcol = (Column.Bools) col;
+            for (int r = from; r < to; r++) {
+                if (!col.isNull(r)) s.distinct.add(HyperLogLog.hash(bcol.get(r) ? 1 : 0));
+            }
+        } else {
+            Column.Strings scol = (Column.Strings) col;
+            for (int r = from; r < to; r++) {
+                if (!col.isNull(r)) s.distinct.add(HyperLogLog.hash(scol.get(r).hashCode()));
+            }
+        }
+        if (col.nullCount > 0) {
+            for (int r = from; r < to; r++) {
+                if (col.isNull(r)) s.nulls++;
+            }
+        }
+        return s;
+    }
+
+    private static final class Task extends RecursiveTask<ColumnStats> {
+        private static final long serialVersionUID = 1L;
+
+        private final Column col;
+        private final int from, to;
+
+        Task(Column col, int from, int to) {
+            this.col = col;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ColumnStats compute() {
+            int mid = ((from + to) >>> 1) & ~Column.CHUNK_MASK;     // split on a chunk boundary
+            if (to - from <= LEAF || mid <= from) return scan(col, from, to);
+            Task left = new Task(col, from, mid);
+            left.fork();
+            ColumnStats right = new Task(col, mid, to).compute();
+            ColumnStats stats = left.join();
+            stats.merge(right);
+            return stats;
+        }
+    }
+
+    /**
+     * Summarises the first {@code rows} rows of every column, all columns and ranges in parallel.
+     */
+    static ColumnStats[] of(Column[] columns, int rows) {
+        List<ForkJoinTask<ColumnStats>> tasks = new ArrayList<>(columns.length);
+        for (Column col : columns) tasks.add(new Task(col, 0, rows).fork());
+        ColumnStats[] stats = new ColumnStats[columns.length];
+        for (int c = 0; c < columns.length; c++) stats[c] = tasks.get(c).join();
+        return stats;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(n);
+        out.writeLong(nulls);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeDouble(mean);
+        out.writeDouble(m2);
+        out.writeBoolean(digest != null);
+        if (digest != null) digest.write(out);
+        distinct.write(out);
+    }
+
+    static ColumnStats read(ByteBuffer buf) {
+        long n = buf.getLong(), nulls = buf.getLong();
+        double min = buf.getDouble(), max = buf.getDouble(), mean = buf.getDouble(), m2 = buf.getDouble();
+        TDigest digest = buf.get() != 0 ? TDigest.read(buf) : null;
+        ColumnStats s = new ColumnStats(false);
+        s.n = n;
+        s.nulls = nulls;
+        s.min = min;
+        s.max = max;
+        s.mean = mean;
+        s.m2 = m2;
+        s.digest = digest;
+        s.distinct = HyperLogLog.read(buf);
+        return s;
+    }
+}
@@ -0,0 +1,207 @@
+package io.github.sqlvisterm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Query results saved in a local directory so they survive a restart. Every result is one file named after
+ * a hash of its cache key, holding a small header followed by the columns, which is mapped and read back in
+ * one go. The least recently used files are deleted when the directory grows past {@link #maxBytes}.
+ */
+class DiskCache {
+    interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static final int MAGIC = 0x53515643;    // SQVC
+    static final int VERSION = 2;     // 2: column statistics with quantile and distinct sketches
+    private static final String SUFFIX = ".sqvc";
+
+    private final File dir;
+    long maxBytes;
+    long ttlMillis;
+
+    DiskCache(File dir, long maxBytes, long ttlMillis) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    private File file(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2 + SUFFIX.length());
+            for (byte b : hash) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return new File(dir, sb.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the result to a temp file first and then moves it in place, so a crash never leaves half a file.
+     * A result of an estimated size over {@link #maxBytes} is not written at all, as it would be deleted right
+     * away. The files of the pinned keys are kept when older files are deleted to make room.
+     */
+    void save(String key, long time, long size, Collection<String> pinned, Writer writer) throws IOException {
+        if (maxBytes <= 0 || size > maxBytes) return;
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        File tmp = File.createTempFile("result", ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, key);
+                out.writeLong(time);
+                writer.write(out);
+            }
+            Files.move(tmp.toPath(), file(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            if (tmp.exists() && !tmp.delete()) tmp.deleteOnExit();
+        }
+        trim(maxBytes, pinned);
+    }
+
+    /**
+     * Returns the saved result positioned after the header, or null when there is none, it has expired or it
+     * was written by another version. The time the result was read is the first long in the buffer.
+     */
+    ByteBuffer load(String key) {
+        File f = file(key);
+        if (!f.isFile()) return null;
+        ByteBuffer buf;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION || !key.equals(readString(buf))) {
+                f.delete();
+                return null;
+            }
+            long time = buf.getLong(buf.position());
+            if (ttlMillis > 0 && System.currentTimeMillis() - time > ttlMillis) {
+                f.delete();
+                return null;
+            }
+        } catch (RuntimeException e) {         // truncated or garbled
+            f.delete();
+            return null;
+        }
+        f.setLastModified(System.currentTimeMillis());
+        return buf;
+    }
+
+    void remove(String key) {
+        File f = file(key);
+        if (f.exists()) f.delete();
+    }
+
+    private File[] files() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        return files != null ? files : new File[0];
+    }
+
+    /**
+     * Deletes the least recently used files until the directory fits in {@code limit} bytes, skipping the
+     * files of the given keys. Returns the number of files deleted.
+     */
+    private int trim(long limit, Collection<String> keys) {
+        Set<String> kept = names(keys);
+        File[] files = files();
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        long total = 0;
+        for (File f : files) total += f.length();
+        int n = 0;
+        for (File f : files) {
+            if (total <= limit) break;
+            if (kept.contains(f.getName())) continue;
+            total -= f.length();
+            if (f.delete()) n++;
+        }
+        return n;
+    }
+
+    private Set<String> names(Collection<String> keys) {
+        Set<String> names = new HashSet<>();
+        if (keys != null) keys.forEach(k -> names.add(file(k).getName()));
+        return names;
+    }
+
+    int clear(Collection<String> keep) {
+        return trim(0, keep);
+    }
+
+    /**
+     * Deletes the files of the matching keys, skipping the files of the keys to keep. Only the header of each
+     * file is read to find its key. Returns the number of files deleted.
+     */
+    int clear(Predicate<String> keys, Collection<String> keep) {
+        Set<String> kept = names(keep);
+        int n = 0;
+        for (File f : files()) {
+            if (kept.contains(f.getName())) continue;
+            String key;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 512))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) continue;    // deleted when loaded
+                int len = in.readInt();
+                if (len < 0 || len > f.length()) continue;
+                byte[] utf8 = new byte[len];
+                in.readFully(utf8);
+                key = new String(utf8, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                continue;
+            }
+            if (keys.test(key) && f.delete()) n++;
+        }
+        return n;
+    }
+
+    void resize(long maxBytes, Collection<String> pinned) {
+        this.maxBytes = maxBytes;
+        trim(maxBytes, pinned);
+    }
+
+    int count() {
+        return files().length;
+    }
+
+    long bytes() {
+        long total = 0;
+        for (File f : files()) total += f.length();
+        return total;
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    static String readString(ByteBuffer buf) {
+        byte[] utf8 = new byte[buf.getInt()];
+        buf.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
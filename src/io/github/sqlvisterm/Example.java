@@ -43,8 +43,12 @@ import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
@@ -106,6 +110,29 @@ public class Example {
                 , "    sleep      sleep 3 seconds"
                 , "    testkey    display key events"
                 , "    tput       set terminal capability"
+                , "  SQL:"
+                , "    scale      change the scale of the bars of a column"
+                , "    lock       keep the scale or hidden columns for new queries"
+                , "    unlock     let new queries reset the scale or hidden columns"
+                , "    hide       hide columns"
+                , "    unhide     show hidden columns again"
+                , "    stats      show statistics of the columns, or turn them on or off"
+                , "    stream     print rows as they are read, laid out by the first rows"
+                , "    limit      show or set fetch size, max rows and cursor settings"
+                , "    view       browse the last result full screen"
+                , "    cache      list, clear, pin or resize the cached results"
+                , "    refresh    run the last query again without the cache, or read the schema again"
+                , "    connect    list the profiles of app.ini or switch to one"
+                , "    startup    show how long starting the program took"
+                , "    log        show or change what goes into the query log"
+                , "    metrics    show the time queries took, per query shape"
+                , "    export     write a result to a csv, tsv, json or bin file"
+                , "    precision  set the decimals of real numbers"
+                , "    sample     query a random sample of the rows"
+                , "    hist       show a histogram of a numeric column"
+                , "    run        run a SQL script file"
+                , "    bind       set the values of query parameters"
+                , "    watch      run a query every few seconds, full screen"
                 , "  Additional help:"
                 , "    <command> --help"};
         for (String u : help) {
@@ -193,6 +220,7 @@ public class Example {
     }
 
     public static void main(String[] args) throws IOException {
+        long step = Startup.begin();
         try {
             String prompt = "sql> ";
             String rightPrompt = null;
@@ -380,7 +408,15 @@ public class Example {
             }
 
             Terminal terminal = builder.build();
+            step = Startup.mark("Terminal", step);
             SQLEngine se = new SQLEngine(terminal);
+            step = Startup.mark("Settings", step);
+            if (completer == null) completer = se.completer();
+            ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "query");
+                t.setDaemon(true);
+                return t;
+            });
             System.out.println(terminal.getName() + ": " + terminal.getType());
             System.out.println("\nhelp: list available commands");
             LineReader reader = LineReaderBuilder.builder()
@@ -390,7 +426,9 @@ public class Example {
                     .variable(LineReader.SECONDARY_PROMPT_PATTERN, "%M%P > ")
                     .variable(LineReader.INDENTATION, 2)
                     .option(Option.INSERT_BRACKET, true)
+                    .option(Option.CASE_INSENSITIVE, true)
                     .build();
+            step = Startup.mark("Line reader", step);
 
             if (timer) {
                 Executors.newScheduledThreadPool(1)
@@ -429,6 +467,7 @@ public class Example {
                 Thread.sleep(2000);
             }
             AtomicBoolean printAbove = new AtomicBoolean();
+            Startup.mark("Prompt", step);
             while (true) {
                 String line = null;
                 try {
@@ -532,17 +571,52 @@ public class Example {
                     } else if ("help".equals(pl.word()) || "?".equals(pl.word())) {
                         help();
                     } else if (eqi("scale", pl.word())) {
-                        se.scale(argv);
+                        execute(terminal, se, worker, () -> se.scale(argv));
+                    } else if (eqi("precision", pl.word())) {
+                        execute(terminal, se, worker, () -> se.precision(argv));
                     } else if (eqi("lock", pl.word())) {
                         se.lock(argv);
                     } else if (eqi("unlock", pl.word())) {
                         se.unlock(argv);
                     } else if (eqi("hide", pl.word())) {
-                        se.hide(argv);
+                        execute(terminal, se, worker, () -> se.hide(argv));
                     } else if (eqi("unhide", pl.word())) {
-                        se.unhide(argv);
+                        execute(terminal, se, worker, () -> se.unhide(argv));
                     } else if (eqi("stats", pl.word())) {
-                        se.stats(argv);
+                        execute(terminal, se, worker, () -> se.stats(argv));
+                    } else if (eqi("stream", pl.word())) {
+                        se.stream(argv);
+                    } else if (eqi("sample", pl.word())) {
+                        se.sample(argv);
+                    } else if (eqi("limit", pl.word())) {
+                        execute(terminal, se, worker, () -> se.limit(argv));
+                    } else if (eqi("view", pl.word())) {
+                        se.view(argv);
+                    } else if (eqi("connect", pl.word())) {
+                        execute(terminal, se, worker, () -> se.connect(argv));
+                    } else if (eqi("metrics", pl.word())) {
+                        se.metrics(argv);
+                    } else if (eqi("log", pl.word())) {
+                        se.log(argv);
+                    } else if (eqi("startup", pl.word())) {
+                        se.startup(argv);
+                    } else if (eqi("cache", pl.word())) {
+                        se.cache(argv);
+                    } else if (eqi("refresh", pl.word())) {
+                        execute(terminal, se, worker, () -> se.refresh(argv));
+                    } else if (eqi("export", pl.word())) {
+                        String export = line;
+                        execute(terminal, se, worker, () -> se.export(export));
+                    } else if (eqi("bind", pl.word())) {
+                        se.bind(line);
+                    } else if (eqi("run", pl.word())) {
+                        String run = line;
+                        execute(terminal, se, worker, () -> se.run(run));
+                    } else if (eqi("hist", pl.word())) {
+                        String hist = line;
+                        execute(terminal, se, worker, () -> se.hist(hist));
+                    } else if (eqi("watch", pl.word())) {
+                        se.watch(line);         // full screen with its own status line, like view
                     }
                     /*else if ("select".equals(pl.word())) {
                         OptionSelector selector = new OptionSelector(terminal, "Select number>"
@@ -551,7 +625,8 @@ public class Example {
                         System.out.println("You selected number " + selected);
                     }*/
                     else {
-                        se.processInput(line);
+                        String sql = line;
+                        execute(terminal, se, worker, () -> se.processInput(sql));
                     }
                 } catch (HelpException e) {
                     HelpException.highlight(e.getMessage(), HelpException.defaultStyle()).print(terminal);
@@ -568,6 +643,48 @@ public class Example {
         }
     }
 
+    /**
+     * Runs the task on the query thread and waits for it. While waiting, Ctrl-C cancels the running statement
+     * and the status line shows the rows fetched so far.
+     */
+    private static void execute(Terminal terminal, SQLEngine se, ExecutorService worker, Runnable task) throws InterruptedException {
+        Future<?> future = worker.submit(task);
+        Terminal.SignalHandler prev = terminal.handle(Terminal.Signal.INT, signal -> se.cancel());
+        Status status = null;
+        try {
+            while (true) {
+                try {
+                    future.get(250, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    if (se.isRunning()) {
+                        if (status == null) status = Status.getStatus(terminal);
+                        if (status == null) continue;
+                        long rows = se.getRowsFetched();
+                        double secs = se.getElapsedNanos() / 1e9;
+                        synchronized (terminal) {
+                            status.update(Collections.singletonList(new AttributedStringBuilder()
+                                    .style(AttributedStyle.DEFAULT.foreground(AttributedStyle.YELLOW))
+                                    .append(String.format("%,d rows | %,.0f rows/s | %d:%04.1f elapsed | Ctrl-C to cancel",
+                                            rows, secs > 0 ? rows / secs : 0, (int) secs / 60, secs % 60))
+                                    .toAttributedString()));
+                        }
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        } finally {
+            terminal.handle(Terminal.Signal.INT, prev);
+            if (status != null) {
+                synchronized (terminal) {
+                    status.update(Collections.emptyList());
+                }
+            }
+            terminal.flush();
+        }
+    }
+
     private static boolean eqi(String s1, String s2) {
         if (s1 == null && s2 == null) return true;
         else if (s1 == null && s2 != null) return false;
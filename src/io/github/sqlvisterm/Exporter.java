@@ -0,0 +1,446 @@
+package io.github.sqlvisterm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+/**
+ * Writes a result set to a file row by row as it is read from the cursor, so memory use doesn't grow with
+ * the number of rows. The text is encoded into a direct buffer which is written to a file channel whenever
+ * it fills up. Formats:
+ * <ul>
+ * <li>csv: comma separated with a header line, fields quoted as in RFC 4180</li>
+ * <li>tsv: tab separated with a header line, tabs, newlines and backslashes escaped as \t, \n and \\</li>
+ * <li>json: one JSON object per line</li>
+ * <li>bin: typed and columnar, see {@link #writeBinary}</li>
+ * </ul>
+ */
+class Exporter implements Closeable {
+    static final int BOOL = 0, INT = 1, REAL = 2, CHAR = 3;     // the column types of SQLEngine
+
+    private static final int MAGIC = 0x53515642;        // SQVB
+    private static final int VERSION = 1;
+    private static final int GROUP = 65536;             // rows per row group of the binary format
+
+    private final FileChannel channel;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+    private long bytes;
+
+    Exporter(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    static boolean isFormat(String format) {
+        return format.equals("csv") || format.equals("tsv") || format.equals("json") || format.equals("bin");
+    }
+
+    /**
+     * Writes all rows of the result set and returns the number of rows. {@code types} holds the type of each
+     * column and anything else is written as a string. {@code progress} is told the number of rows written
+     * now and then, and the export stops with an exception when {@code cancelled} turns true.
+     */
+    long write(String format, ResultSet rs, int[] types, BooleanSupplier cancelled, LongConsumer progress)
+            throws SQLException, IOException {
+        switch (format) {
+            case "csv":
+                return writeText(rs, types, ',', cancelled, progress);
+            case "tsv":
+                return writeText(rs, types, '\t', cancelled, progress);
+            case "json":
+                return writeJson(rs, types, cancelled, progress);
+            case "bin":
+                return writeBinary(rs, types, cancelled, progress);
+            default:
+                throw new IllegalArgumentException("Unknown format: " + format);
+        }
+    }
+
+    private long writeText(ResultSet rs, int[] types, char sep, BooleanSupplier cancelled, LongConsumer progress)
+            throws SQLException, IOException {
+        ResultSetMetaData md = rs.getMetaData();
+        int n = types.length;
+        for (int c = 0; c < n; c++) {
+            if (c > 0) put(sep);
+            field(md.getColumnLabel(c + 1), sep);
+        }
+        put('\n');
+        long rows = 0;
+        while (rs.next()) {
+            for (int c = 0; c < n; c++) {
+                if (c > 0) put(sep);
+                switch (types[c]) {
+                    case BOOL:
+                        boolean b = rs.getBoolean(c + 1);
+                        if (!rs.wasNull()) put(b ? "true" : "false");
+                        break;
+                    case INT:
+                        long l = rs.getLong(c + 1);
+                        if (!rs.wasNull()) put(l);
+                        break;
+                    default:
+                        String s = rs.getString(c + 1);
+                        if (s != null) field(s, sep);
+                }
+            }
+            put('\n');
+            if ((++rows & 0x3FF) == 0) check(rows, cancelled, progress);
+        }
+        return rows;
+    }
+
+    /**
+     * Writes a CSV field, quoted when it contains the separator, a quote or a line break, or a TSV field with
+     * the special characters escaped.
+     */
+    private void field(String s, char sep) throws IOException {
+        if (sep == '\t') {
+            for (int i = 0; i < s.length(); i++) {
+                char ch = s.charAt(i);
+                if (ch == '\t') put("\\t");
+                else if (ch == '\n') put("\\n");
+                else if (ch == '\r') put("\\r");
+                else if (ch == '\\') put("\\\\");
+                else put(ch);
+            }
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < s.length() && !quote; i++) {
+            char ch = s.charAt(i);
+            quote = ch == sep || ch == '"' || ch == '\n' || ch == '\r';
+        }
+        if (!quote) {
+            put(s);
+            return;
+        }
+        put('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"') put('"');
+            put(ch);
+        }
+        put('"');
+    }
+
+    private long writeJson(ResultSet rs, int[] types, BooleanSupplier cancelled, LongConsumer progress)
+            throws SQLException, IOException {
+        ResultSetMetaData md = rs.getMetaData();
+        int n = types.length;
+        String[] keys = new String[n];
+        for (int c = 0; c < n; c++) {
+            StringBuilder sb = new StringBuilder();
+            json(sb, md.getColumnLabel(c + 1));
+            keys[c] = sb.append(':').toString();
+        }
+        StringBuilder sb = new StringBuilder();
+        long rows = 0;
+        while (rs.next()) {
+            put('{');
+            for (int c = 0; c < n; c++) {
+                if (c > 0) put(',');
+                put(keys[c]);
+                switch (types[c]) {
+                    case BOOL:
+                        boolean b = rs.getBoolean(c + 1);
+                        put(rs.wasNull() ? "null" : b ? "true" : "false");
+                        break;
+                    case INT:
+                        long l = rs.getLong(c + 1);
+                        if (rs.wasNull()) put("null");
+                        else put(l);
+                        break;
+                    case REAL:
+                        double d = rs.getDouble(c + 1);
+                        if (rs.wasNull() || Double.isNaN(d) || Double.isInfinite(d)) put("null");
+                        else put(rs.getString(c + 1));      // the driver's text keeps the exact decimal
+                        break;
+                    default:
+                        String s = rs.getString(c + 1);
+                        if (s == null) {
+                            put("null");
+                        } else {
+                            sb.setLength(0);
+                            json(sb, s);
+                            put(sb);
+                        }
+                }
+            }
+            put("}\n");
+            if ((++rows & 0x3FF) == 0) check(rows, cancelled, progress);
+        }
+        return rows;
+    }
+
+    private static void json(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            switch (ch) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (ch < 0x20) sb.append(String.format("\\u%04x", (int) ch));
+                    else sb.append(ch);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Writes the typed columnar format. All numbers are big-endian and varints are unsigned LEB128.
+     * <pre>
+     * header:    int magic "SQVB", int version, int columns, per column: string name, byte type
+     *            (0 boolean, 1 long, 2 double, 3 string)
+     * row group: int rows (at most 65536), then per column: byte has nulls, the null bitmap if it has
+     *            (a set bit is a null), then the values of the rows which are not null:
+     *            boolean: bitmap, long: zigzag varint of the difference to the previous value,
+     *            double: 8 bytes, string: varint length and UTF-8 bytes
+     * end:       int 0, long total rows
+     * </pre>
+     * A string in the header is a varint length and UTF-8 bytes. A bitmap holds (rows + 7) / 8 bytes with row
+     * 0 in the lowest bit of the first byte.
+     */
+    private long writeBinary(ResultSet rs, int[] types, BooleanSupplier cancelled, LongConsumer progress)
+            throws SQLException, IOException {
+        ResultSetMetaData md = rs.getMetaData();
+        int n = types.length;
+        int[] kind = new int[n];
+        putInt(MAGIC);
+        putInt(VERSION);
+        putInt(n);
+        for (int c = 0; c < n; c++) {
+            kind[c] = types[c] >= BOOL && types[c] <= CHAR ? types[c] : CHAR;
+            putString(md.getColumnLabel(c + 1));
+            putByte(kind[c]);
+        }
+        long[][] longs = new long[n][];
+        double[][] doubles = new double[n][];
+        String[][] strings = new String[n][];
+        boolean[][] nulls = new boolean[n][GROUP];
+        for (int c = 0; c < n; c++) {
+            if (kind[c] == REAL) doubles[c] = new double[GROUP];
+            else if (kind[c] == CHAR) strings[c] = new String[GROUP];
+            else longs[c] = new long[GROUP];
+        }
+        long rows = 0;
+        int r = 0;
+        while (true) {
+            boolean more = rs.next();
+            if (more) {
+                for (int c = 0; c < n; c++) {
+                    switch (kind[c]) {
+                        case BOOL:
+                            longs[c][r] = rs.getBoolean(c + 1) ? 1 : 0;
+                            break;
+                        case INT:
+                            longs[c][r] = rs.getLong(c + 1);
+                            break;
+                        case REAL:
+                            doubles[c][r] = rs.getDouble(c + 1);
+                            break;
+                        default:
+                            strings[c][r] = rs.getString(c + 1);
+                    }
+                    nulls[c][r] = rs.wasNull();
+                }
+                r++;
+                if ((++rows & 0x3FF) == 0) check(rows, cancelled, progress);
+            }
+            if (r == GROUP || !more && r > 0) {
+                writeGroup(r, kind, longs, doubles, strings, nulls);
+                r = 0;
+            }
+            if (!more) break;
+        }
+        putInt(0);
+        putLong(rows);
+        return rows;
+    }
+
+    private void writeGroup(int rows, int[] kind, long[][] longs, double[][] doubles, String[][] strings,
+                            boolean[][] nulls) throws IOException {
+        putInt(rows);
+        for (int c = 0; c < kind.length; c++) {
+            boolean[] isNull = nulls[c];
+            boolean any = false;
+            for (int r = 0; r < rows && !any; r++) any = isNull[r];
+            putByte(any ? 1 : 0);
+            if (any) putBits(rows, isNull);
+            switch (kind[c]) {
+                case BOOL:
+                    boolean[] set = new boolean[rows];
+                    int k = 0;
+                    for (int r = 0; r < rows; r++) {
+                        if (!isNull[r]) set[k++] = longs[c][r] != 0;
+                    }
+                    putBits(k, set);
+                    break;
+                case INT:
+                    long prev = 0;
+                    for (int r = 0; r < rows; r++) {
+                        if (isNull[r]) continue;
+                        long delta = longs[c][r] - prev;
+                        prev = longs[c][r];
+                        putVarint((delta << 1) ^ (delta >> 63));
+                    }
+                    break;
+                case REAL:
+                    for (int r = 0; r < rows; r++) {
+                        if (!isNull[r]) putDouble(doubles[c][r]);
+                    }
+                    break;
+                default:
+                    for (int r = 0; r < rows; r++) {
+                        if (!isNull[r]) putString(strings[c][r]);
+                        strings[c][r] = null;
+                    }
+            }
+        }
+    }
+
+    private void putBits(int count, boolean[] bits) throws IOException {
+        for (int i = 0; i < count; i += 8) {
+            int b = 0;
+            for (int j = 0; j < 8 && i + j < count; j++) {
+                if (bits[i + j]) b |= 1 << j;
+            }
+            putByte(b);
+        }
+    }
+
+    private void check(long rows, BooleanSupplier cancelled, LongConsumer progress) throws SQLException {
+        if (cancelled.getAsBoolean()) throw new SQLException("Export cancelled");
+        progress.accept(rows);
+    }
+
+    private void room(int n) throws IOException {
+        if (buf.remaining() < n) drain();
+    }
+
+    private void drain() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) bytes += channel.write(buf);
+        buf.clear();
+    }
+
+    private void put(char ch) throws IOException {
+        if (ch < 0x80) {
+            room(1);
+            buf.put((byte) ch);
+        } else {
+            put(String.valueOf(ch));
+        }
+    }
+
+    private void put(long l) throws IOException {
+        if (l >= 0 && l < 10) {
+            put((char) ('0' + l));
+        } else {
+            put(Long.toString(l));
+        }
+    }
+
+    /**
+     * Encodes the text as UTF-8, ASCII characters directly and the rest through a String.
+     */
+    private void put(CharSequence s) throws IOException {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char ch = s.charAt(i);
+            if (ch < 0x80) {
+                room(1);
+                buf.put((byte) ch);
+                continue;
+            }
+            int end = i + 1;
+            while (end < len && s.charAt(end) >= 0x80) end++;
+            byte[] utf8 = s.subSequence(i, end).toString().getBytes(StandardCharsets.UTF_8);
+            putBytes(utf8);
+            i = end - 1;
+        }
+    }
+
+    private void putBytes(byte[] b) throws IOException {
+        int off = 0;
+        while (off < b.length) {
+            if (!buf.hasRemaining()) drain();
+            int n = Math.min(buf.remaining(), b.length - off);
+            buf.put(b, off, n);
+            off += n;
+        }
+    }
+
+    private void putByte(int b) throws IOException {
+        room(1);
+        buf.put((byte) b);
+    }
+
+    private void putInt(int i) throws IOException {
+        room(4);
+        buf.putInt(i);
+    }
+
+    private void putLong(long l) throws IOException {
+        room(8);
+        buf.putLong(l);
+    }
+
+    private void putDouble(double d) throws IOException {
+        room(8);
+        buf.putDouble(d);
+    }
+
+    private void putVarint(long v) throws IOException {
+        room(10);
+        while ((v & ~0x7FL) != 0) {
+            buf.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buf.put((byte) v);
+    }
+
+    private void putString(String s) throws IOException {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        putVarint(utf8.length);
+        putBytes(utf8);
+    }
+
+    /**
+     * Bytes written to the file so far.
+     */
+    long bytes() {
+        return bytes + buf.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+}
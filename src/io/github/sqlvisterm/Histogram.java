@@ -0,0 +1,142 @@
+package io.github.sqlvisterm;
+
+import java.util.Arrays;
+
+/**
+ * Counts the values of a numeric column into buckets of equal width in one pass and in constant memory,
+ * without knowing the range of the values beforehand. The range is guessed from the first values, with a
+ * round bucket width like 0.5, 2 or 100, the one nearest to the range divided by the buckets asked for.
+ * Whenever a later value falls outside the range the buckets are doubled in width, merging each pair of
+ * neighbours, until the range reaches the value.
+ * <p>
+ * Twice as many buckets are counted as asked for, so the range can grow to twice its size before any merging.
+ * {@link #finish} drops the empty buckets at both ends and merges pairs again when that brings the number of
+ * buckets closer to the one asked for, so it ends up near that number but not always on it.
+ */
+class Histogram {
+    private static final int GUESS = 4096;      // values held back to guess the range from
+
+    private final int buckets;
+    private final boolean integral;
+    private final long[] counts;
+    private final double[] first = new double[GUESS];
+    private int held;
+    private double lo, width;       // bucket i counts [lo + i * width, lo + (i + 1) * width), width is 0 until guessed
+
+    long n, nulls, invalid;         // invalid counts NaN and infinity
+    double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, sum;
+
+    // the buckets shown after finish
+    private long[] shown = new long[0];
+    private double shownLo, shownWidth;
+
+    Histogram(int buckets, boolean integral) {
+        this.buckets = buckets;
+        this.integral = integral;
+        counts = new long[buckets * 2];
+    }
+
+    void addNull() {
+        nulls++;
+    }
+
+    void add(double val) {
+        if (Double.isNaN(val) || Double.isInfinite(val)) {
+            invalid++;
+            return;
+        }
+        n++;
+        sum += val;
+        if (val < min) min = val;
+        if (val > max) max = val;
+        if (width == 0) {
+            first[held++] = val;
+            if (held == GUESS) start();
+            return;
+        }
+        count(val);
+    }
+
+    /**
+     * Sets the range from the values seen so far and counts them.
+     */
+    private void start() {
+        double range = max - min;
+        width = nice(range > 0 ? range / buckets : Math.abs(min) > 0 ? Math.abs(min) / buckets : 1);
+        if (integral) width = Math.max(1, width);
+        lo = Math.floor(min / width) * width;
+        for (int i = 0; i < held; i++) count(first[i]);
+        held = 0;
+    }
+
+    /**
+     * The nearest of 1, 2 and 5 times a power of ten to the given width, nearest by ratio, so the number of
+     * buckets is off by at most a factor of 1.6.
+     */
+    private static double nice(double w) {
+        double p = Math.pow(10, Math.floor(Math.log10(w)));
+        double m = w / p;
+        return (m < Math.sqrt(2) ? 1 : m < Math.sqrt(10) ? 2 : m < Math.sqrt(50) ? 5 : 10) * p;
+    }
+
+    private void count(double val) {
+        while (val < lo) grow(false);
+        while (val >= lo + width * counts.length) grow(true);
+        int i = (int) ((val - lo) / width);
+        counts[Math.min(i, counts.length - 1)]++;       // rounding can put a value just below the top past it
+    }
+
+    /**
+     * Doubles the width of the buckets, keeping the lower end of the range or, with {@code up} false, the upper
+     * end.
+     */
+    private void grow(boolean up) {
+        int b = counts.length, half = b / 2;
+        if (up) {
+            for (int i = 0; i < half; i++) counts[i] = counts[2 * i] + counts[2 * i + 1];
+            Arrays.fill(counts, half, b, 0);
+        } else {
+            for (int k = half - 1; k >= 0; k--) counts[half + k] = counts[2 * k] + counts[2 * k + 1];
+            Arrays.fill(counts, 0, half, 0);
+            lo -= width * b;
+        }
+        width *= 2;
+    }
+
+    /**
+     * Ends the pass and works out the buckets to show, from the first to the last which isn't empty.
+     */
+    void finish() {
+        if (n == 0) return;
+        if (width == 0) start();
+        int from = 0, to = counts.length;
+        while (counts[from] == 0) from++;
+        while (counts[to - 1] == 0) to--;
+        int used = to - from, half = (used + 1) / 2;
+        int step = Math.abs(half - buckets) < Math.abs(used - buckets) ? 2 : 1;    // merge when closer to the ask
+        shown = new long[(to - from + step - 1) / step];
+        for (int i = from; i < to; i++) shown[(i - from) / step] += counts[i];
+        shownLo = lo + from * width;
+        shownWidth = width * step;
+    }
+
+    int size() {
+        return shown.length;
+    }
+
+    long count(int i) {
+        return shown[i];
+    }
+
+    double lower(int i) {
+        return shownLo + i * shownWidth;
+    }
+
+    double width() {
+        return shownWidth;
+    }
+
+    boolean integral() {
+        return integral;
+    }
+}
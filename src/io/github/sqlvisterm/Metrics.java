@@ -0,0 +1,122 @@
+package io.github.sqlvisterm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timings of recent queries grouped by their shape, the SQL with literals replaced by ?, so the same report
+ * with another date range counts as one. Each shape keeps the last {@link #WINDOW} runs of every phase, from
+ * which the percentiles are taken, and only the {@link #SHAPES} most recently run shapes are kept.
+ */
+class Metrics {
+    static final String[] PHASES = {"Execute", "First row", "Fetch", "Build", "Stats", "Render", "Total"};
+    static final int EXECUTE = 0, FIRST_ROW = 1, FETCH = 2, BUILD = 3, STATS = 4, RENDER = 5, TOTAL = 6;
+
+    private static final int WINDOW = 256;
+    private static final int SHAPES = 200;
+
+    static final class Shape {
+        final String sql;
+        private final long[][] samples = new long[PHASES.length][WINDOW];     // nanos
+        private int next;
+        long runs, rows, bytes;
+
+        Shape(String sql) {
+            this.sql = sql;
+        }
+
+        /**
+         * The value below which the fraction {@code q} of the kept runs of the phase lie, in nanos.
+         */
+        long percentile(int phase, double q) {
+            int n = (int) Math.min(runs, WINDOW);
+            if (n == 0) return 0;
+            long[] sorted = Arrays.copyOf(samples[phase], n);
+            Arrays.sort(sorted);
+            return sorted[Math.min(n - 1, (int) Math.ceil(q * n) - 1)];
+        }
+    }
+
+    private final LinkedHashMap<String, Shape> shapes = new LinkedHashMap<String, Shape>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Shape> eldest) {
+            return size() > SHAPES;
+        }
+    };
+
+    /**
+     * Records one run. The phases are in nanos in the order of {@link #PHASES} without the total.
+     */
+    synchronized void record(String sql, long[] phases, long rows, long bytes) {
+        String key = shape(sql);
+        Shape s = shapes.computeIfAbsent(key, Shape::new);
+        int i = s.next;
+        long total = 0;
+        for (int p = 0; p < TOTAL; p++) {
+            s.samples[p][i] = phases[p];
+            total += phases[p];
+        }
+        s.samples[TOTAL][i] = total;
+        s.next = (i + 1) % WINDOW;
+        s.runs++;
+        s.rows += rows;
+        s.bytes += bytes;
+    }
+
+    /**
+     * The shapes with the most recently run first.
+     */
+    synchronized List<Shape> list() {
+        List<Shape> list = new ArrayList<>(shapes.values());
+        Collections.reverse(list);
+        return list;
+    }
+
+    synchronized void clear() {
+        shapes.clear();
+    }
+
+    /**
+     * Formats nanos as 0.25 ms, 12 ms or 3.40 s.
+     */
+    static String duration(long nanos) {
+        double ms = nanos / 1e6;
+        if (ms < 10) return String.format("%.2f ms", ms);
+        if (ms < 10_000) return String.format("%,.0f ms", ms);
+        return String.format("%.2f s", ms / 1000);
+    }
+
+    /**
+     * Normalizes the SQL like the result cache does and replaces string and number literals with ?.
+     */
+    static String shape(String sql) {
+        String s = ResultCache.normalize(sql);
+        StringBuilder sb = new StringBuilder(s.length());
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char ch = s.charAt(i);
+            if (ch == '\'') {
+                int end = i + 1;
+                while (end < n && s.charAt(end) != '\'') end++;
+                sb.append('?');
+                i = end;
+            } else if (ch == '"' || ch == '`') {            // quoted names stay
+                int end = i + 1;
+                while (end < n && s.charAt(end) != ch) end++;
+                sb.append(s, i, Math.min(end + 1, n));
+                i = end;
+            } else if (Character.isDigit(ch) && (i == 0 || !Character.isLetterOrDigit(s.charAt(i - 1))
+                    && s.charAt(i - 1) != '_')) {
+                while (i + 1 < n && (Character.isDigit(s.charAt(i + 1)) || s.charAt(i + 1) == '.')) i++;
+                sb.append('?');
+            } else {
+                sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,276 @@
+package io.github.sqlvisterm;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Formats numbers like {@link String#format} does for %,d, %,.Nf and %.Ng, character for character and with
+ * the digits, separators and grouping of the locale, without parsing a pattern or creating a Formatter for
+ * every value. Digits are written into a reusable buffer, so an instance must only be used by one thread at a
+ * time.
+ * <p>
+ * Like Formatter, doubles are rounded half up from the shortest decimal digits which identify the value, the
+ * digits of {@link Double#toString}, and padded with zeros beyond them. NaN and infinity are not handled here.
+ */
+class NumberFormatter {
+    private final char zero, decimalSeparator, groupingSeparator;     // groupingSeparator is 0 for no grouping
+    private final int groupSize;
+
+    private final StringBuilder shortest = new StringBuilder(32);      // Double.toString of the value
+    private final char[] digits = new char[32];     // its significant digits, without leading and trailing zeros
+    private int nDigits, decExp;                    // the value is 0.digits * 10^decExp
+    private char[] out = new char[64];
+    private int len;
+
+    NumberFormatter() {
+        this(Locale.getDefault(Locale.Category.FORMAT));
+    }
+
+    NumberFormatter(Locale locale) {
+        if (locale.equals(Locale.US)) {
+            zero = '0';
+            decimalSeparator = '.';
+            groupingSeparator = ',';
+            groupSize = 3;
+            return;
+        }
+        DecimalFormatSymbols dfs = DecimalFormatSymbols.getInstance(locale);
+        zero = dfs.getZeroDigit();
+        decimalSeparator = dfs.getDecimalSeparator();
+        NumberFormat nf = NumberFormat.getNumberInstance(locale);
+        int size = nf instanceof DecimalFormat ? ((DecimalFormat) nf).getGroupingSize() : 3;
+        groupingSeparator = !nf.isGroupingUsed() || size == 0 ? 0 : dfs.getGroupingSeparator();
+        groupSize = size;
+    }
+
+    /**
+     * Same as String.format("%,d", val).
+     */
+    String grouped(long val) {
+        len = 0;
+        putGrouped(val);
+        return new String(out, 0, len);
+    }
+
+    void appendGrouped(StringBuilder sb, long val) {
+        len = 0;
+        putGrouped(val);
+        sb.append(out, 0, len);
+    }
+
+    /**
+     * Same as String.format("%,." + decimals + "f", val) for a finite value.
+     */
+    String fixed(double val, int decimals) {
+        len = 0;
+        putFixed(val, decimals);
+        return new String(out, 0, len);
+    }
+
+    void appendFixed(StringBuilder sb, double val, int decimals) {
+        len = 0;
+        putFixed(val, decimals);
+        sb.append(out, 0, len);
+    }
+
+    /**
+     * Same as String.format("%." + precision + "g", val) for a finite value: the value with {@code precision}
+     * significant digits, in scientific notation when it is below 10^-4 or at least 10^precision after
+     * rounding.
+     */
+    String general(double val, int precision) {
+        len = 0;
+        putGeneral(val, precision);
+        return new String(out, 0, len);
+    }
+
+    void appendGeneral(StringBuilder sb, double val, int precision) {
+        len = 0;
+        putGeneral(val, precision);
+        sb.append(out, 0, len);
+    }
+
+    private void putGrouped(long val) {
+        if (val < 0) put('-');
+        if (val == Long.MIN_VALUE) {
+            putInteger("9223372036854775808".toCharArray(), 19);
+            return;
+        }
+        long v = Math.abs(val);
+        char[] tmp = digits;
+        int n = 0;
+        do {
+            tmp[n++] = (char) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = 0, j = n - 1; i < j; i++, j--) {       // most significant digit first
+            char t = tmp[i];
+            tmp[i] = tmp[j];
+            tmp[j] = t;
+        }
+        putInteger(tmp, n);
+    }
+
+    /**
+     * Writes the integer digits with the grouping separator between groups.
+     */
+    private void putInteger(char[] d, int n) {
+        for (int i = 0; i < n; i++) {
+            if (groupingSeparator != 0 && i > 0 && (n - i) % groupSize == 0) put(groupingSeparator);
+            put(localize(d[i]));
+        }
+    }
+
+    private void putFixed(double val, int decimals) {
+        boolean neg = Double.compare(val, 0.0) < 0;     // -0.0 too, as Formatter does
+        if (neg) put('-');
+        if (val == 0) {
+            nDigits = 0;
+            decExp = 1;
+        } else {
+            digitsOf(Math.abs(val));
+            round(decExp + decimals);
+        }
+        // integer part
+        int intDigits = Math.max(decExp, 0);
+        if (intDigits == 0) {
+            put(zero);
+        } else {
+            for (int i = 0; i < intDigits; i++) {
+                if (groupingSeparator != 0 && i > 0 && (intDigits - i) % groupSize == 0) put(groupingSeparator);
+                put(i < nDigits ? localize(digits[i]) : zero);
+            }
+        }
+        if (decimals == 0) return;
+        put(decimalSeparator);
+        for (int i = 0; i < decimals; i++) {
+            int d = decExp + i;         // index of this decimal in the digits
+            put(d >= 0 && d < nDigits ? localize(digits[d]) : zero);
+        }
+    }
+
+    private void putGeneral(double val, int precision) {
+        if (precision == 0) precision = 1;
+        boolean neg = Double.compare(val, 0.0) < 0;
+        if (neg) put('-');
+        if (val == 0) {
+            put(zero);
+            if (precision > 1) {
+                put(decimalSeparator);
+                for (int i = 1; i < precision; i++) put(zero);
+            }
+            return;
+        }
+        digitsOf(Math.abs(val));
+        round(precision);
+        int exp = decExp - 1;           // the value is d.ddd * 10^exp
+        if (exp < -4 || exp >= precision) {
+            put(localize(digits[0]));
+            if (precision > 1) {
+                put(decimalSeparator);
+                for (int i = 1; i < precision; i++) put(i < nDigits ? localize(digits[i]) : zero);
+            }
+            put('e');
+            put(exp < 0 ? '-' : '+');
+            int e = Math.abs(exp);
+            if (e >= 100) put(localize((char) ('0' + e / 100)));
+            put(localize((char) ('0' + e / 10 % 10)));
+            put(localize((char) ('0' + e % 10)));
+        } else {
+            putFixedDigits(precision - 1 - exp);
+        }
+    }
+
+    /**
+     * Writes the rounded digits without grouping with the given number of decimals.
+     */
+    private void putFixedDigits(int decimals) {
+        if (decExp <= 0) {
+            put(zero);
+        } else {
+            for (int i = 0; i < decExp; i++) put(i < nDigits ? localize(digits[i]) : zero);
+        }
+        if (decimals == 0) return;
+        put(decimalSeparator);
+        for (int i = 0; i < decimals; i++) {
+            int d = decExp + i;
+            put(d >= 0 && d < nDigits ? localize(digits[d]) : zero);
+        }
+    }
+
+    /**
+     * Reads the significant digits and the exponent of a positive value from its shortest representation,
+     * like "123.45", "0.00123" or "1.2345E-7".
+     */
+    private void digitsOf(double val) {
+        StringBuilder s = shortest;
+        s.setLength(0);
+        s.append(val);
+        int n = s.length(), e = s.indexOf("E"), end = e < 0 ? n : e;
+        int exp = 0;
+        if (e >= 0) {
+            boolean negExp = s.charAt(e + 1) == '-';
+            for (int i = negExp ? e + 2 : e + 1; i < n; i++) exp = exp * 10 + s.charAt(i) - '0';
+            if (negExp) exp = -exp;
+        }
+        nDigits = 0;
+        int point = end;        // digits before the point
+        boolean leading = true;
+        int skipped = 0;        // leading zeros after the point
+        for (int i = 0; i < end; i++) {
+            char ch = s.charAt(i);
+            if (ch == '.') {
+                point = i;
+                continue;
+            }
+            if (leading && ch == '0') {
+                if (point < i) skipped++;
+                continue;
+            }
+            leading = false;
+            digits[nDigits++] = ch;
+        }
+        while (nDigits > 0 && digits[nDigits - 1] == '0') nDigits--;
+        int intDigits = point - (s.charAt(0) == '0' ? 1 : 0);   // "0.00123" has none
+        decExp = (intDigits > 0 ? intDigits : -skipped) + exp;
+    }
+
+    /**
+     * Keeps the first {@code keep} digits, rounding half up on the next one.
+     */
+    private void round(int keep) {
+        if (keep >= nDigits) return;
+        if (keep < 0) {
+            nDigits = 0;
+            return;
+        }
+        boolean up = digits[keep] >= '5';
+        nDigits = keep;
+        if (!up) {
+            while (nDigits > 0 && digits[nDigits - 1] == '0') nDigits--;
+            return;
+        }
+        int i = keep - 1;
+        while (i >= 0 && digits[i] == '9') i--;
+        if (i < 0) {            // 999 -> 1000
+            digits[0] = '1';
+            nDigits = 1;
+            decExp++;
+        } else {
+            digits[i]++;
+            nDigits = i + 1;
+        }
+    }
+
+    private char localize(char digit) {
+        return (char) (digit - '0' + zero);
+    }
+
+    private void put(char ch) {
+        if (len == out.length) out = Arrays.copyOf(out, len * 2);
+        out[len++] = ch;
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.sqlvisterm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Case-insensitive prefix index over a fixed set of words. The words are kept in one sorted array, so all
+ * words with a prefix form a contiguous range, and a trie over the first characters leads to that range in
+ * as many steps as the prefix is long. Ranges of up to {@link #LEAF} words are scanned instead of getting
+ * nodes of their own, which keeps the trie small even for hundreds of thousands of column names.
+ */
+final class PrefixTrie<V> {
+    private static final int LEAF = 16;
+
+    private static final class Node {
+        final int from, to;         // range of the words below this node
+        char[] chars;               // next character of the children, sorted; null for a leaf
+        Node[] children;
+
+        Node(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final String[] keys;    // lower case, sorted
+    private final Object[] values;
+    private final Node root;
+
+    /**
+     * Indexes the values by their words. A word which occurs more than once keeps its first value.
+     */
+    PrefixTrie(Map<String, V> words) {
+        TreeMap<String, V> sorted = new TreeMap<>();
+        words.forEach((word, value) -> sorted.putIfAbsent(word.toLowerCase(), value));
+        keys = sorted.keySet().toArray(new String[0]);
+        values = sorted.values().toArray();
+        root = build(0, keys.length, 0);
+    }
+
+    private Node build(int from, int to, int depth) {
+        Node node = new Node(from, to);
+        if (to - from <= LEAF) return node;
+        List<Character> chars = new ArrayList<>();
+        List<Node> children = new ArrayList<>();
+        int i = from;
+        while (i < to && keys[i].length() <= depth) i++;    // words which end here sort first
+        while (i < to) {
+            char ch = keys[i].charAt(depth);
+            int end = i + 1;
+            while (end < to && keys[end].charAt(depth) == ch) end++;
+            chars.add(ch);
+            children.add(build(i, end, depth + 1));
+            i = end;
+        }
+        node.chars = new char[chars.size()];
+        for (int c = 0; c < node.chars.length; c++) node.chars[c] = chars.get(c);
+        node.children = children.toArray(new Node[0]);
+        return node;
+    }
+
+    /**
+     * Adds the values of up to {@code limit} words starting with the prefix, in alphabetical order.
+     */
+    @SuppressWarnings("unchecked")
+    void find(String prefix, int limit, List<V> out) {
+        String p = prefix.toLowerCase();
+        Node node = root;
+        int depth = 0;
+        while (depth < p.length() && node.chars != null) {
+            int c = Arrays.binarySearch(node.chars, p.charAt(depth));
+            if (c < 0) return;
+            node = node.children[c];
+            depth++;
+        }
+        int n = 0;
+        for (int i = node.from; i < node.to && n < limit; i++) {
+            if (depth == p.length() || keys[i].startsWith(p)) {
+                out.add((V) values[i]);
+                n++;
+            }
+        }
+    }
+
+    int size() {
+        return keys.length;
+    }
+}
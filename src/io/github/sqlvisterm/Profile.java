@@ -0,0 +1,182 @@
+package io.github.sqlvisterm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+/**
+ * A named connection from a section of app.ini, like [SQLITE] or [Amazon Redshift]. Each profile keeps a few
+ * open connections ready, so switching to it with the "connect" command doesn't pay for the network, TLS and
+ * login handshake again. Connections given back by {@link #release} are kept for the next {@link #acquire}.
+ * The prepared statements of each connection are kept with the profile and closed with their connection.
+ */
+class Profile {
+    final String name;
+    final String host, user, password;
+    final int fetchSize, maxRows;
+    final boolean scrollable, updatable, autoCommit;
+    private final int poolSize;
+
+    private final Deque<Connection> idle = new ArrayDeque<>();
+    private final Map<Connection, StatementCache> prepared = new HashMap<>();       // guarded by this
+    private volatile String error;      // why warming up the pool failed, if it did
+    volatile Schema schema;             // tables and columns for tab completion, loaded in the background
+    volatile String schemaError;
+
+    Profile(String name, Properties ini) {
+        this.name = name;
+        host = ini.getProperty("host").trim();
+        user = ini.getProperty("user");
+        password = ini.getProperty("password");
+        fetchSize = Integer.parseInt(ini.getProperty("fetchsize", "0").trim());
+        maxRows = Integer.parseInt(ini.getProperty("maxrows", "0").trim());
+        scrollable = "scroll".equalsIgnoreCase(ini.getProperty("cursor", "forward").trim());
+        updatable = !Boolean.parseBoolean(ini.getProperty("readonly", "true").trim());
+        autoCommit = Boolean.parseBoolean(ini.getProperty("autocommit", "true").trim());
+        poolSize = Integer.parseInt(ini.getProperty("pool", "1").trim());
+    }
+
+    /**
+     * Reads an ini file into its sections. Keys before the first section go to the section named "", which is
+     * also the defaults of every other section. Lines starting with # or ; are comments.
+     */
+    static Map<String, Properties> readIni(Reader reader) throws IOException {
+        Map<String, Properties> sections = new LinkedHashMap<>();
+        Properties global = new Properties();
+        Properties section = global;
+        sections.put("", global);
+        BufferedReader in = new BufferedReader(reader);
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#' || line.charAt(0) == ';') continue;
+            if (line.charAt(0) == '[' && line.endsWith("]")) {
+                section = new Properties(global);
+                sections.put(line.substring(1, line.length() - 1).trim(), section);
+                continue;
+            }
+            int eq = line.indexOf('=');
+            if (eq > 0) section.setProperty(line.substring(0, eq).trim(), line.substring(eq + 1).trim());
+        }
+        return sections;
+    }
+
+    /**
+     * The profiles of all sections which have a host, in the order of the file.
+     */
+    static Map<String, Profile> of(Map<String, Properties> ini) {
+        Map<String, Profile> profiles = new LinkedHashMap<>();
+        ini.forEach((name, section) -> {
+            if (!name.isEmpty() && section.getProperty("host") != null) profiles.put(name, new Profile(name, section));
+        });
+        return profiles;
+    }
+
+    /**
+     * Returns a pooled connection which is still alive, or opens a new one when there is none.
+     */
+    Connection acquire() throws SQLException {
+        Connection conn;
+        while ((conn = poll()) != null) {
+            try {
+                if (conn.isValid(5)) return conn;
+            } catch (SQLException ignored) {
+            }
+            close(conn);
+        }
+        return DriverManager.getConnection(host, user, password);
+    }
+
+    private synchronized Connection poll() {
+        return idle.pollFirst();
+    }
+
+    /**
+     * Keeps the connection for later use, or closes it when the pool is full.
+     */
+    void release(Connection conn) {
+        synchronized (this) {
+            if (idle.size() < poolSize) {
+                idle.addFirst(conn);
+                return;
+            }
+        }
+        close(conn);
+    }
+
+    /**
+     * Opens connections on the executor until the pool is full.
+     */
+    void warm(Executor executor) {
+        int missing;
+        synchronized (this) {
+            missing = poolSize - idle.size();
+        }
+        for (int i = 0; i < missing; i++) {
+            executor.execute(() -> {
+                try {
+                    release(DriverManager.getConnection(host, user, password));
+                    error = null;
+                } catch (SQLException e) {
+                    error = e.getMessage();
+                }
+            });
+        }
+    }
+
+    /**
+     * The prepared statements of a connection of this profile, or null when none were prepared on it.
+     */
+    synchronized StatementCache statements(Connection conn) {
+        return prepared.get(conn);
+    }
+
+    /**
+     * The prepared statements of a connection of this profile, keeping at most maxSize of them.
+     */
+    synchronized StatementCache statements(Connection conn, int maxSize) {
+        return prepared.computeIfAbsent(conn, c -> new StatementCache(c, maxSize));
+    }
+
+    synchronized int idle() {
+        return idle.size();
+    }
+
+    String error() {
+        return error;
+    }
+
+    /**
+     * Closes the idle connections and the prepared statements of all connections.
+     */
+    void close() {
+        Connection conn;
+        while ((conn = poll()) != null) close(conn);
+        synchronized (this) {
+            prepared.values().forEach(StatementCache::clear);
+            prepared.clear();
+        }
+    }
+
+    private void close(Connection conn) {
+        StatementCache sc;
+        synchronized (this) {
+            sc = prepared.remove(conn);
+        }
+        if (sc != null) sc.clear();
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package io.github.sqlvisterm;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The query log, written by a background thread so the terminal never waits for the disk. Messages go into a
+ * bounded ring buffer which the writer drains in batches, flushing once per batch. When the buffer is full,
+ * new messages are dropped and counted instead of blocking. The file is rotated once it passes
+ * {@link #maxBytes}, keeping {@link #files} files: query.log, query.log.1 and so on.
+ */
+class QueryLog {
+    static final int OFF = 0;
+    static final int SQL = 1;           // queries and comments
+    static final int TIMING = 2;        // and the time, row count and duration of each query
+    static final int FULL = 3;          // and the output, without colors
+    static final int COLOR = 4;         // and the output with colors and bars, for cat
+    private static final String[] MODES = {"off", "sql", "timing", "full", "color"};
+
+    private static final int CAPACITY = 16384;
+    private static final long INTERVAL = 200;       // ms between batches
+
+    final File file;
+    volatile int mode;
+    volatile long maxBytes;
+    volatile int files;
+
+    private final String[] ring = new String[CAPACITY];
+    private int head, size;
+    private long dropped;
+    private boolean closed;
+    private final Thread writer;
+
+    QueryLog(File file, int mode, long maxBytes, int files) {
+        this.file = file;
+        this.mode = mode;
+        this.maxBytes = maxBytes;
+        this.files = files;
+        writer = new Thread(this::run, "log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    static int mode(String name) {
+        for (int m = 0; m < MODES.length; m++) {
+            if (MODES[m].equalsIgnoreCase(name.trim())) return m;
+        }
+        throw new IllegalArgumentException("Log mode must be one of off, sql, timing, full or color: " + name);
+    }
+
+    static String modeName(int mode) {
+        return MODES[mode];
+    }
+
+    void sql(String s) {
+        if (mode >= SQL) add(s);
+    }
+
+    void timing(String s) {
+        if (mode >= TIMING) add(s);
+    }
+
+    void output(String s) {
+        if (mode >= FULL) add(s);
+    }
+
+    private synchronized void add(String s) {
+        if (closed) return;
+        if (size == CAPACITY) {
+            dropped++;
+            return;
+        }
+        ring[(head + size++) % CAPACITY] = s;
+        if (size == CAPACITY / 2) notifyAll();
+    }
+
+    /**
+     * Asks the writer to write what has been logged so far without waiting for the next batch.
+     */
+    synchronized void flush() {
+        notifyAll();
+    }
+
+    private void run() {
+        Writer out = null;
+        long length = file.length();
+        StringBuilder batch = new StringBuilder(1 << 16);
+        while (true) {
+            long lost;
+            boolean last;
+            synchronized (this) {
+                if (size == 0 && !closed) {
+                    try {
+                        wait(INTERVAL);
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                }
+                for (; size > 0; size--) {
+                    batch.append(ring[head]);
+                    ring[head] = null;
+                    head = (head + 1) % CAPACITY;
+                }
+                lost = dropped;
+                dropped = 0;
+                last = closed;
+            }
+            if (lost > 0) batch.append(String.format("%n[%,d log messages dropped]%n", lost));
+            if (batch.length() > 0) {
+                String text = mode == COLOR ? batch.toString() : stripAnsi(batch);
+                batch.setLength(0);
+                try {
+                    if (out != null && maxBytes > 0 && length + text.length() > maxBytes) {
+                        out.close();
+                        out = null;
+                        rotate();
+                        length = 0;
+                    }
+                    if (out == null) {
+                        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+                                StandardCharsets.UTF_8), 1 << 16);
+                    }
+                    out.write(text);
+                    out.flush();
+                    length += text.length();
+                } catch (IOException e) {
+                    System.err.println("query log: " + e.getMessage());
+                }
+            }
+            if (last) break;
+        }
+        if (out != null) try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Renames query.log to query.log.1, query.log.1 to query.log.2 and so on, deleting the oldest file.
+     */
+    private void rotate() {
+        File oldest = new File(file.getPath() + "." + (files - 1));
+        if (files <= 1 || oldest.exists() && !oldest.delete()) {
+            file.delete();
+            return;
+        }
+        for (int i = files - 2; i >= 1; i--) {
+            File f = new File(file.getPath() + "." + i);
+            if (f.exists()) f.renameTo(new File(file.getPath() + "." + (i + 1)));
+        }
+        file.renameTo(new File(file.getPath() + ".1"));
+    }
+
+    /**
+     * Removes the escape sequences for colors and cursor movement.
+     */
+    static String stripAnsi(CharSequence s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char ch = s.charAt(i);
+            if (ch != 27) {
+                sb.append(ch);
+            } else if (i + 1 < n && s.charAt(i + 1) == '[') {
+                i += 2;
+                while (i < n && (s.charAt(i) < '@' || s.charAt(i) > '~')) i++;      // up to the final byte
+            } else {
+                i++;        // two character sequences like ESC 7
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes what is left and stops the writer, waiting at most a second.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package io.github.sqlvisterm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Results of recent queries kept in memory, so going back to an earlier query doesn't run it against the
+ * database again. Entries are kept in least recently used order and evicted once their total size passes
+ * {@link #maxBytes}. Entries older than {@link #ttlMillis} are dropped when they are looked up. Pinned entries
+ * are never evicted.
+ */
+class ResultCache<V> {
+    static final class Entry<V> {
+        final String key;
+        final String sql;
+        final V value;
+        final long bytes;
+        final long created = System.currentTimeMillis();
+        int hits;
+        boolean pinned;
+
+        Entry(String key, String sql, V value, long bytes) {
+            this.key = key;
+            this.sql = sql;
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Consumer<V> onEvict;
+    private long bytes;
+    long maxBytes;
+    long ttlMillis;
+
+    ResultCache(long maxBytes, long ttlMillis, Consumer<V> onEvict) {
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        this.onEvict = onEvict;
+    }
+
+    /**
+     * Makes queries which differ only in comments, white space, the case of keywords and unquoted names or
+     * a trailing semicolon share an entry. Quoted strings and names are kept as they are.
+     */
+    static String normalize(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        boolean space = false;
+        int n = sql.length();
+        for (int i = 0; i < n; i++) {
+            char ch = sql.charAt(i);
+            if (ch == '\'' || ch == '"' || ch == '`') {                 // copy quoted text as is
+                int end = i + 1;
+                while (end < n && sql.charAt(end) != ch) end++;
+                if (space && sb.length() > 0) sb.append(' ');
+                space = false;
+                sb.append(sql, i, Math.min(end + 1, n));
+                i = end;
+            } else if (ch == '-' && i + 1 < n && sql.charAt(i + 1) == '-') {
+                while (i < n && sql.charAt(i) != '\n') i++;
+                space = true;
+            } else if (ch == '/' && i + 1 < n && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 1;
+                space = true;
+            } else if (Character.isWhitespace(ch)) {
+                space = true;
+            } else {
+                if (space && sb.length() > 0) sb.append(' ');
+                space = false;
+                sb.append(Character.toLowerCase(ch));
+            }
+        }
+        while (sb.length() > 0 && sb.charAt(sb.length() - 1) == ';') sb.setLength(sb.length() - 1);
+        return sb.toString().trim();
+    }
+
+    V get(String key) {
+        Entry<V> e = entries.get(key);
+        if (e == null) return null;
+        if (!e.pinned && ttlMillis > 0 && System.currentTimeMillis() - e.created > ttlMillis) {
+            remove(key);
+            return null;
+        }
+        e.hits++;
+        return e.value;
+    }
+
+    Entry<V> entry(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Adds the value unless it is bigger than the whole cache, then evicts the least recently used entries
+     * until the cache fits again.
+     */
+    void put(String key, String sql, V value, long size) {
+        if (size > maxBytes) return;
+        Entry<V> old = entries.get(key);
+        boolean pinned = old != null && old.pinned;
+        if (old != null) remove(key);
+        Entry<V> e = new Entry<>(key, sql, value, size);
+        e.pinned = pinned;
+        entries.put(key, e);
+        bytes += size;
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Entry<V>> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Entry<V> e = it.next();
+            if (e.pinned) continue;
+            it.remove();
+            bytes -= e.bytes;
+            onEvict.accept(e.value);
+        }
+    }
+
+    private void remove(String key) {
+        Entry<V> e = entries.remove(key);
+        if (e == null) return;
+        bytes -= e.bytes;
+        onEvict.accept(e.value);
+    }
+
+    boolean contains(V value) {
+        for (Entry<V> e : entries.values()) {
+            if (e.value == value) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes all entries which are not pinned and returns how many were removed.
+     */
+    int clear() {
+        return clear(key -> true);
+    }
+
+    /**
+     * Removes the entries of the matching keys which are not pinned and returns how many were removed.
+     */
+    int clear(Predicate<String> keys) {
+        int n = 0;
+        Iterator<Entry<V>> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry<V> e = it.next();
+            if (e.pinned || !keys.test(e.key)) continue;
+            it.remove();
+            bytes -= e.bytes;
+            onEvict.accept(e.value);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Keys of the pinned entries.
+     */
+    List<String> pinned() {
+        List<String> keys = new ArrayList<>();
+        for (Entry<V> e : entries.values()) {
+            if (e.pinned) keys.add(e.key);
+        }
+        return keys;
+    }
+
+    void resize(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Entries with the most recently used first.
+     */
+    List<Entry<V>> list() {
+        List<Entry<V>> list = new ArrayList<>(entries.values());
+        Collections.reverse(list);
+        return list;
+    }
+
+    static String age(long millis) {
+        long s = millis / 1000;
+        if (s < 60) return s + "s";
+        if (s < 3600) return s / 60 + "m";
+        if (s < 86400) return s / 3600 + "h";
+        return s / 86400 + "d";
+    }
+}
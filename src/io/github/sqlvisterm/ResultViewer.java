@@ -0,0 +1,194 @@
+package io.github.sqlvisterm;
+
+import org.jline.keymap.BindingReader;
+import org.jline.keymap.KeyMap;
+import org.jline.terminal.Attributes;
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+import org.jline.utils.AttributedString;
+import org.jline.utils.AttributedStringBuilder;
+import org.jline.utils.AttributedStyle;
+import org.jline.utils.Display;
+import org.jline.utils.InfoCmp.Capability;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.jline.keymap.KeyMap.ctrl;
+import static org.jline.keymap.KeyMap.key;
+
+/**
+ * Full screen viewer for a query result. Only the rows and columns which fit in the terminal are
+ * formatted for each frame, so browsing a million rows, or a hundred columns, costs the same as browsing ten.
+ */
+class ResultViewer {
+    interface Source {
+        int rowCount();
+
+        /**
+         * The character offset at which the header and rows returned for the offset start, the left edge of
+         * the column at the offset.
+         */
+        int start(int offset);
+
+        /**
+         * The column at the character offset, counting from 1.
+         */
+        int column(int offset);
+
+        /**
+         * The columns of the header from the one at character offset from up to the one at to.
+         */
+        String header(int from, int to);
+
+        String rule();
+
+        /**
+         * The columns of the row from the one at character offset from up to the one at to.
+         */
+        String row(int r, int from, int to);
+    }
+
+    private enum Operation {LINE_DOWN, LINE_UP, PAGE_DOWN, PAGE_UP, LEFT, RIGHT, HOME, END, GOTO, EXIT}
+
+    private static final int H_STEP = 8;
+
+    private final Terminal terminal;
+    private final Source source;
+    private final Size size = new Size();
+    private final BindingReader bindingReader;
+    private int top, left;
+
+    ResultViewer(Terminal terminal, Source source) {
+        this.terminal = terminal;
+        this.source = source;
+        this.bindingReader = new BindingReader(terminal.reader());
+    }
+
+    private int pageSize() {
+        return Math.max(1, size.getRows() - 3);     // header, rule and status line
+    }
+
+    private List<AttributedString> displayLines(String prompt) {
+        int width = size.getColumns();
+        int rows = source.rowCount();
+        int bottom = Math.min(rows, top + pageSize());
+
+        int start = source.start(left);
+        List<AttributedString> out = new ArrayList<>(pageSize() + 3);
+        out.add(clip(source.header(left, left + width), left - start, width));
+        out.add(clip(source.rule(), left, width));
+        for (int r = top; r < bottom; r++) {
+            out.add(clip(source.row(r, left, left + width), left - start, width));
+        }
+
+        String status = prompt != null ? prompt : String.format(
+                "Rows %,d-%,d of %,d | Column %d | Up/Down PgUp/PgDn Left/Right Home/End, g: go to row, q: quit",
+                rows == 0 ? 0 : top + 1, bottom, rows, source.column(left));
+        while (out.size() < size.getRows() - 1) {
+            out.add(AttributedString.EMPTY);
+        }
+        out.add(new AttributedStringBuilder().append(status, AttributedStyle.INVERSE).toAttributedString()
+                .columnSubSequence(0, width));
+        return out;
+    }
+
+    private static AttributedString clip(String ansi, int from, int width) {
+        return AttributedString.fromAnsi(ansi).columnSubSequence(from, from + width);
+    }
+
+    private void bindKeys(KeyMap<Operation> map) {
+        map.bind(Operation.LINE_DOWN, "j", "\r", key(terminal, Capability.key_down));
+        map.bind(Operation.LINE_UP, "k", key(terminal, Capability.key_up));
+        map.bind(Operation.PAGE_DOWN, " ", "f", ctrl('F'), key(terminal, Capability.key_npage));
+        map.bind(Operation.PAGE_UP, "b", ctrl('B'), key(terminal, Capability.key_ppage));
+        map.bind(Operation.LEFT, "h", key(terminal, Capability.key_left));
+        map.bind(Operation.RIGHT, "l", key(terminal, Capability.key_right));
+        map.bind(Operation.HOME, "<", key(terminal, Capability.key_home));
+        map.bind(Operation.END, ">", "G", key(terminal, Capability.key_end));
+        map.bind(Operation.GOTO, "g", ":");
+        map.bind(Operation.EXIT, "q", ctrl('C'));
+    }
+
+    /**
+     * Reads a row number on the status line.
+     */
+    private int readRow(Display display) {
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            String prompt = "Go to row: " + sb;
+            display.update(displayLines(prompt), size.cursorPos(size.getRows() - 1, prompt.length()));
+            int c = bindingReader.readCharacter();
+            if (c == '\r' || c == '\n') break;
+            if (c == 27 || c == 3) return -1;
+            if ((c == 127 || c == 8) && sb.length() > 0) sb.setLength(sb.length() - 1);
+            else if (c >= '0' && c <= '9' && sb.length() < 10) sb.append((char) c);
+        }
+        return sb.length() == 0 ? -1 : (int) Math.min(Long.parseLong(sb.toString()) - 1, Integer.MAX_VALUE);
+    }
+
+    private void scrollTo(int row) {
+        top = Math.max(0, Math.min(row, source.rowCount() - pageSize()));
+    }
+
+    public void show(int row) {
+        Display display = new Display(terminal, true);
+        Attributes attr = terminal.enterRawMode();
+        try {
+            terminal.puts(Capability.enter_ca_mode);
+            terminal.puts(Capability.keypad_xmit);
+            terminal.writer().flush();
+            size.copy(terminal.getSize());
+            display.clear();
+            display.reset();
+            scrollTo(row);
+            KeyMap<Operation> keyMap = new KeyMap<>();
+            bindKeys(keyMap);
+            while (true) {
+                size.copy(terminal.getSize());
+                display.resize(size.getRows(), size.getColumns());
+                display.update(displayLines(null), size.cursorPos(size.getRows() - 1, 0));
+                Operation op = bindingReader.readBinding(keyMap);
+                if (op == null) return;
+                switch (op) {
+                    case LINE_DOWN:
+                        scrollTo(top + 1);
+                        break;
+                    case LINE_UP:
+                        scrollTo(top - 1);
+                        break;
+                    case PAGE_DOWN:
+                        scrollTo(top + pageSize());
+                        break;
+                    case PAGE_UP:
+                        scrollTo(top - pageSize());
+                        break;
+                    case LEFT:
+                        left = Math.max(0, left - H_STEP);
+                        break;
+                    case RIGHT:
+                        left = Math.max(0, Math.min(left + H_STEP, source.rule().length() - size.getColumns()));
+                        break;
+                    case HOME:
+                        top = 0;
+                        left = 0;
+                        break;
+                    case END:
+                        scrollTo(source.rowCount());
+                        break;
+                    case GOTO:
+                        int r = readRow(display);
+                        if (r >= 0) scrollTo(r);
+                        break;
+                    case EXIT:
+                        return;
+                }
+            }
+        } finally {
+            terminal.setAttributes(attr);
+            terminal.puts(Capability.exit_ca_mode);
+            terminal.puts(Capability.keypad_local);
+            terminal.writer().flush();
+        }
+    }
+}
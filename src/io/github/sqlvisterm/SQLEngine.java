@@ -1,27 +1,41 @@
 package io.github.sqlvisterm;
 
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.jline.reader.Completer;
 import org.jline.terminal.Terminal;
 import org.jline.utils.AttributedStringBuilder;
 import org.jline.utils.AttributedStyle;
 
 import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static java.sql.Types.*;
 
 public class SQLEngine {
-    private String HOST, USER, PASS;
+    private Map<String, Profile> profiles = new LinkedHashMap<>();
+    private volatile Profile profile;
 
-    private final String alignLeft = "%-[N]s";
+    private static final String NL = System.lineSeparator();
+    private static final Pattern SELECT = Pattern.compile("\\s*(SELECT|WITH)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TRANSACTION = Pattern.compile("BEGIN|START|COMMIT|END|ROLLBACK|SAVEPOINT|RELEASE");
+    private static final int BATCH = 1000;      // statements per JDBC batch when running a script
 
     private final int _BOOL_ = 0;
     private final int _INT_ = 1;
     private final int _REAL_ = 2;
     private final int _CHAR_ = 3;
     private final int _OTHER_ = -1;
+    static final int DECIMALS = 15;     // decimals of real numbers unless set with the precision command
 
     private final int _MIN_ = 0;
     private final int _MAX_ = 1;
@@ -29,47 +43,412 @@ public class SQLEngine {
     private final int _STDEV_ = 3;
     private final int _VARIANCE_ = 4;
     private final int _P_VARIANCE_ = 5;
+    private final int _MEDIAN_ = 6;
+    private final int _P90_ = 7;
+    private final int _P99_ = 8;
+    private final int _NULLS_ = 9;
+    private final int _DISTINCT_ = 10;
+    private final int _MEAN_CI_ = 11;       // shown for sampled results only
 
     private Connection conn;
     private Statement stmt;
+    // opens the pooled connections of the profiles in the background
+    private final ExecutorService connector = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "connect");
+        t.setDaemon(true);
+        return t;
+    });
+    private Future<?> connecting;       // the first connection, opened in the background at startup
+    private String product;             // name and version of the database
     private Terminal terminal;
 
     private Set<String> setEx;
 
     private String lastSQL;
+    private String lastBinds = "";          // the parameter values lastSQL ran with, see bound
+    private String lastSample = "";         // the sample mode lastSQL ran with, see sampleMode
+    private boolean stale;                  // statements may have changed the data since lastSQL ran
+    private int lastMaxRows;                // the max rows lastSQL ran with
+    private final Map<String, Object> binds = new LinkedHashMap<>();     // values of :name and ? parameters
+    private int preparedSize = 32;
+    private volatile Statement current;     // the statement which runs the query, for cancel
+    private ResultSet open;                 // the result set of the work in runTracked, closed when it ends
     private QueryResult qr;
     private Map<String, Float> scale = new HashMap<>();
+    private Map<String, Integer> precision = new HashMap<>();     // decimals of real columns, by column name
+    private int decimals = DECIMALS;
     private Set<String> hidden = new HashSet<>();
     private boolean scaleLocked, hiddenLocked, statsOn;
-
-    private PrintStream log;
+    private int streamRows;
+    private double samplePercent;       // sample mode: keep this percentage of the rows, or
+    private int sampleRows;             // a random sample of this many rows
+    private int maxBar = 100;
+    private int fetchSize, maxRows;
+    private boolean scrollable, updatable, autoCommit = true;
+    private int spillRows;
+    private long spillBytes = Runtime.getRuntime().maxMemory() / 4;
+    private ResultCache<QueryResult> cache;
+    private DiskCache disk;
+
+    private QueryLog log;
+    private final Metrics metrics = new Metrics();
+
+    // progress of the running query, read by the status line on the terminal thread
+    private volatile long rowsFetched, queryStart;
+    private volatile boolean running, cancelled;
+    private long fetched;
 
     public SQLEngine(Terminal terminal) {
+        this(terminal, readIni(new File("app.ini")));
+    }
+
+    /**
+     * Uses settings read elsewhere, so a benchmark can run without app.ini, a database or a log file.
+     */
+    SQLEngine(Terminal terminal, Map<String, Properties> sections) {
         this.terminal = terminal;
-        Properties ini = new Properties();
-        try (FileReader reader = new FileReader("app.ini");) {
-            ini.load(reader);
-            HOST = ini.getProperty("host");
-            USER = ini.getProperty("user");
-            PASS = ini.getProperty("password");
+        long cacheBytes = Runtime.getRuntime().maxMemory() / 4, cacheTtl = 3600, diskBytes = 1L << 30;
+        String cacheDir = "cache";
+        String logFile = "query.log";
+        int logMode = QueryLog.FULL, logFiles = 5;
+        long logBytes = 10L << 20;
+        String start = null;
+        profiles = Profile.of(sections);
+        try {
+            Properties ini = sections.get("");
+            start = ini.getProperty("profile");
             setEx = Arrays.stream(ini.getProperty("exclude", "").split(",")).collect(Collectors.toSet());
+            maxBar = Integer.parseInt(ini.getProperty("maxbar", "100").trim());
+            spillRows = Integer.parseInt(ini.getProperty("spillrows", "0").trim());
+            if (ini.getProperty("spillbytes") != null) spillBytes = parseBytes(ini.getProperty("spillbytes"));
+            if (ini.getProperty("cachesize") != null) cacheBytes = parseBytes(ini.getProperty("cachesize"));
+            cacheTtl = Long.parseLong(ini.getProperty("cachettl", "3600").trim());
+            if (ini.getProperty("diskcache") != null) diskBytes = parseBytes(ini.getProperty("diskcache"));
+            cacheDir = ini.getProperty("cachedir", cacheDir).trim();
+            logFile = ini.getProperty("log", logFile).trim();
+            logMode = QueryLog.mode(ini.getProperty("logmode", "full"));
+            if (ini.getProperty("logsize") != null) logBytes = parseBytes(ini.getProperty("logsize"));
+            logFiles = Integer.parseInt(ini.getProperty("logfiles", "5").trim());
+            preparedSize = Integer.parseInt(ini.getProperty("preparedcache", "32").trim());
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+        }
+        if (setEx == null) setEx = new HashSet<>();
+        cache = new ResultCache<>(cacheBytes, cacheTtl * 1000, r -> {
+            if (r != qr) r.close();
+        });
+        disk = new DiskCache(new File(cacheDir), diskBytes, cacheTtl * 1000);
+
+        log = new QueryLog(new File(logFile), logMode, logBytes, logFiles);
+
+        profile = start != null ? findProfile(start) : profiles.values().stream().findFirst().orElse(null);
+        if (profile == null) {
+            System.out.println(start != null ? "Unknown profile: " + start : "No connection in app.ini");
+            return;
+        }
+        use(profile);
+        Profile first = profile;
+        connecting = connector.submit(() -> {
+            open(first);
+            return null;
+        });
+        System.out.println("Connecting to " + profile.host);
+        for (Profile p : profiles.values()) {
+            if (p != profile) p.warm(connector);
+        }
+    }
+
+    private static Map<String, Properties> readIni(File file) {
+        try (FileReader reader = new FileReader(file)) {
+            return Profile.readIni(reader);
         } catch (IOException e) {
             e.printStackTrace();
+            Map<String, Properties> sections = new LinkedHashMap<>();
+            sections.put("", new Properties());
+            return sections;
         }
+    }
+
+    /**
+     * Loads the JDBC drivers and opens the first connection. Runs in the background while the prompt shows up.
+     */
+    private void open(Profile p) throws SQLException {
+        long t = System.nanoTime();
+        DriverManager.getDrivers();
+        t = Startup.mark("Load drivers", t);
+        conn = p.acquire();
+        t = Startup.mark("Connect", t);
+        createStatement(p);
+        DatabaseMetaData md = conn.getMetaData();
+        product = md.getDatabaseProductName() + " " + md.getDatabaseProductVersion();
+        Startup.mark("Metadata", t);
+        connector.execute(() -> {
+            long start = System.nanoTime();
+            loadSchema(p);
+            Startup.mark("Schema", start);
+        });
+    }
 
+    /**
+     * Reads the tables and columns for tab completion on a pooled connection, so it doesn't get in the way
+     * of queries.
+     */
+    private Schema loadSchema(Profile p) {
         try {
-            log = new PrintStream(new BufferedOutputStream(new FileOutputStream("query.log", true)));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            Connection c = p.acquire();
+            try {
+                p.schema = new Schema(c);
+            } finally {
+                p.release(c);
+            }
+        } catch (SQLException e) {
+            p.schemaError = e.getMessage();
         }
+        return p.schema;
+    }
+
+    /**
+     * The completer for the line reader, with the tables and columns of the current connection.
+     */
+    public Completer completer() {
+        return new SqlCompleter(this);
+    }
+
+    Schema schema() {
+        Profile p = profile;
+        return p != null ? p.schema : null;
+    }
 
+    Collection<String> profileNames() {
+        return profiles.keySet();
+    }
+
+    /**
+     * Column names of the current result, for completing the scale and hide commands.
+     */
+    List<String> resultColumns() {
+        QueryResult r = qr;
+        return r != null && r.cols != null ? Arrays.asList(r.cols) : Collections.emptyList();
+    }
+
+    /**
+     * Waits until the connection opened at startup is ready, unless the running query is cancelled first.
+     * Returns false when there is no connection.
+     */
+    private boolean connected() {
+        if (connecting != null) {
+            if (!connecting.isDone()) println("Connecting to " + profile.name + "...");
+            try {
+                while (!(running && cancelled)) {
+                    try {
+                        connecting.get(100, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException ignored) {
+                    }
+                }
+                if (running && cancelled) return false;
+            } catch (ExecutionException e) {
+                println(e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            connecting = null;
+        }
+        return stmt != null;
+    }
+
+    /**
+     * Prints how long each step of starting the program took.
+     */
+    public void startup(String[] argv) {
+        Startup.report().forEach(this::println);
+        if (product != null) println("Database: " + product);
+        println("");
+    }
+
+    /**
+     * Finds a profile by its name, ignoring case, or by the start of its name when that is unique.
+     */
+    private Profile findProfile(String name) {
+        Profile found = null;
+        for (Profile p : profiles.values()) {
+            if (p.name.equalsIgnoreCase(name)) return p;
+            if (p.name.toLowerCase().startsWith(name.toLowerCase())) {
+                if (found != null) return null;
+                found = p;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Takes over the cursor type and limits of the profile, which the "limit" command can change afterwards.
+     */
+    private void use(Profile p) {
+        fetchSize = p.fetchSize;
+        maxRows = p.maxRows;
+        scrollable = p.scrollable;
+        updatable = p.updatable;
+        autoCommit = p.autoCommit;
+    }
+
+    /**
+     * Lists the profiles of app.ini or switches to one. The connection in use goes back to its profile's pool,
+     * so switching back later is instant as well.
+     */
+    public void connect(String[] argv) {
+        if (argv.length == 0) {
+            printf("%-20s  %-4s  %s%n", "Profile", "Idle", "Host");
+            for (Profile p : profiles.values()) {
+                String err = p.error();
+                printf("%-20s  %4s  %s%s%n", (p == profile ? "* " : "  ") + p.name, p == profile ? "-" : p.idle(),
+                        p.host, err != null ? "  (" + err + ")" : "");
+            }
+            println("");
+            return;
+        }
+        String name = String.join(" ", argv);
+        Profile p = findProfile(name);
+        connected();
+        if (p == null) {
+            println("Unknown profile: " + name + ", one of " + profiles.keySet());
+            return;
+        }
+        if (p == profile && conn != null) {
+            printf("Already connected to %s%n%n", p.name);
+            return;
+        }
+        Connection newConn;
         try {
-            conn = DriverManager.getConnection(HOST, USER, PASS);
-            stmt = conn.createStatement();
-            System.out.println("Connected to " + HOST);
+            newConn = p.acquire();
         } catch (SQLException e) {
-            e.printStackTrace();
+            println(e.getMessage());
+            return;
         }
+        Profile oldProfile = profile;
+        Connection oldConn = conn;
+        int oldFetchSize = fetchSize, oldMaxRows = maxRows;
+        boolean oldScrollable = scrollable, oldUpdatable = updatable, oldAutoCommit = autoCommit;
+        conn = newConn;
+        use(p);
+        try {
+            createStatement(p);
+        } catch (SQLException e) {
+            println(e.getMessage());
+            p.release(newConn);
+            conn = oldConn;
+            fetchSize = oldFetchSize;
+            maxRows = oldMaxRows;
+            scrollable = oldScrollable;
+            updatable = oldUpdatable;
+            autoCommit = oldAutoCommit;
+            return;
+        }
+        profile = p;
+        if (p.schema == null) connector.execute(() -> loadSchema(p));
+        if (oldConn != null) oldProfile.release(oldConn);
+        lastSQL = null;         // the same SQL runs again on the new connection
+        printf("Connected to %s (%s)%n%n", p.name, p.host);
+    }
+
+    /**
+     * Parses a size like 512k, 64m or 2g. Zero turns the limit off.
+     */
+    private static long parseBytes(String val) {
+        val = val.trim().toLowerCase();
+        long unit = 1;
+        switch (val.isEmpty() ? ' ' : val.charAt(val.length() - 1)) {
+            case 'k':
+                unit = 1L << 10;
+                break;
+            case 'm':
+                unit = 1L << 20;
+                break;
+            case 'g':
+                unit = 1L << 30;
+                break;
+        }
+        if (unit > 1) val = val.substring(0, val.length() - 1).trim();
+        return Long.parseLong(val) * unit;
+    }
+
+    /**
+     * Creates the statement used for queries with the cursor type and limits from app.ini (or the "limit"
+     * command). A forward-only, read-only cursor with a fetch size lets drivers like Redshift and MariaDB
+     * stream the result in pages instead of buffering all of it before the first row is returned. Note that
+     * the Redshift/PostgreSQL driver ignores the fetch size while autocommit is on.
+     */
+    private void createStatement(Profile p) throws SQLException {
+        Statement s = conn.createStatement(scrollable ? ResultSet.TYPE_SCROLL_INSENSITIVE : ResultSet.TYPE_FORWARD_ONLY,
+                updatable ? ResultSet.CONCUR_UPDATABLE : ResultSet.CONCUR_READ_ONLY);
+        try {
+            s.setFetchSize(fetchSize);
+            s.setMaxRows(maxRows);
+            if (conn.getAutoCommit() != autoCommit) conn.setAutoCommit(autoCommit);
+        } catch (SQLException e) {
+            s.close();
+            throw e;
+        }
+        if (stmt != null) stmt.close();
+        stmt = s;
+        StatementCache sc = p.statements(conn);
+        if (sc != null) sc.clear();         // they were prepared with the old cursor type
+    }
+
+    public void limit(String[] argv) {
+        int oldFetchSize = fetchSize, oldMaxRows = maxRows;
+        boolean oldScrollable = scrollable, oldUpdatable = updatable, oldAutoCommit = autoCommit;
+        if (argv.length > 0) {
+            begin();            // so Ctrl-C stops the wait for the connection
+            try {
+                if (!connected() && cancelled) {
+                    println("Query cancelled");
+                    return;
+                }
+            } finally {
+                running = false;
+            }
+        }
+        try {
+            if (argv.length == 1) {
+                if ("off".equalsIgnoreCase(argv[0])) maxRows = 0;
+                else maxRows = Integer.parseInt(argv[0]);
+            } else if (argv.length == 2) {
+                String val = argv[1].toLowerCase();
+                switch (argv[0].toLowerCase()) {
+                    case "fetchsize":
+                        fetchSize = Integer.parseInt(val);
+                        break;
+                    case "maxrows":
+                        maxRows = "off".equals(val) ? 0 : Integer.parseInt(val);
+                        break;
+                    case "cursor":
+                        scrollable = "scroll".equals(val);
+                        break;
+                    case "readonly":
+                        updatable = !("on".equals(val) || "true".equals(val));
+                        break;
+                    case "autocommit":
+                        autoCommit = "on".equals(val) || "true".equals(val);
+                        break;
+                    default:
+                        println("Usage: limit [<maxrows>|off] or limit fetchsize|maxrows|cursor|readonly|autocommit <value>");
+                        return;
+                }
+            }
+            if (argv.length > 0 && conn != null) createStatement(profile);
+        } catch (NumberFormatException | SQLException e) {
+            println(e.getMessage());
+            fetchSize = oldFetchSize;
+            maxRows = oldMaxRows;
+            scrollable = oldScrollable;
+            updatable = oldUpdatable;
+            autoCommit = oldAutoCommit;
+        }
+        printf("Fetch Size: %d | Max Rows: %s | Cursor: %s | Read Only: %s | Autocommit: %s%n%n",
+                fetchSize, maxRows > 0 ? String.valueOf(maxRows) : "off", scrollable ? "scroll" : "forward",
+                updatable ? "off" : "on", autoCommit ? "on" : "off");
     }
 
     public void scale(String[] argv) {
@@ -77,9 +456,11 @@ public class SQLEngine {
             if (argv.length == 1) {                     // change scale of all columns
                 float s = Float.parseFloat(argv[0]);
                 scale.keySet().stream().filter(col -> !exclude(col)).forEach(col -> scale.put(col, s));
+                if (qr != null) qr.invalidate(null);
             } else if (argv.length == 2) {              // change scale of given column
                 String col = argv[0].toLowerCase();
                 if (!exclude(col)) scale.put(col, Float.parseFloat(argv[1]));
+                if (qr != null) qr.invalidate(col);
             }
         } catch (NumberFormatException e) {
             println(e.getMessage());
@@ -87,6 +468,49 @@ public class SQLEngine {
         processInput(lastSQL);
     }
 
+    /**
+     * Sets the number of decimals of real numbers: "precision 2" for all columns, "precision price 2" for one
+     * column, "precision price off" or "precision off" to go back to 15. Without arguments shows the settings.
+     * Column settings are kept for later queries with the same column names.
+     */
+    public void precision(String[] argv) {
+        try {
+            if (argv.length == 1) {
+                int d = "off".equalsIgnoreCase(argv[0]) ? DECIMALS : decimals(argv[0]);
+                decimals = d;
+                precision.clear();
+            } else if (argv.length == 2) {
+                String col = argv[0].toLowerCase();
+                if ("off".equalsIgnoreCase(argv[1])) precision.remove(col);
+                else precision.put(col, decimals(argv[1]));
+            } else {
+                StringBuilder sb = new StringBuilder("Decimals: ").append(decimals);
+                precision.forEach((col, d) -> sb.append(" | ").append(col).append(": ").append(d));
+                println(sb.toString());
+                println();
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            println(e.getMessage());
+            return;
+        }
+        if (qr != null) qr.reformat();
+        processInput(lastSQL);
+    }
+
+    /**
+     * The decimals set with the precision command, which widths and statistics are formatted with.
+     */
+    private String formatting() {
+        return decimals + " " + new TreeMap<>(precision);
+    }
+
+    private static int decimals(String s) {
+        int d = Integer.parseInt(s.trim());
+        if (d < 0 || d > DECIMALS) throw new IllegalArgumentException("Precision must be 0 to " + DECIMALS + " decimals");
+        return d;
+    }
+
     public void lock(String[] argv) {
         if (argv.length == 1) {
             switch (argv[0].toLowerCase()) {
@@ -152,65 +576,1068 @@ public class SQLEngine {
         }
     }
 
+    public void stream(String[] argv) {
+        if (argv.length == 1) {
+            try {
+                if ("on".equalsIgnoreCase(argv[0])) streamRows = 1000;
+                else if ("off".equalsIgnoreCase(argv[0])) streamRows = 0;
+                else streamRows = Math.max(0, Integer.parseInt(argv[0]));
+            } catch (NumberFormatException e) {
+                println(e.getMessage());
+                return;
+            }
+        }
+        if (streamRows > 0)
+            printf("Streaming is on. Column widths and bars are set from the first %d rows, then rows are printed as they are read (or use \"stream off\" command)%n%n", streamRows);
+        else
+            printf("Streaming is off%n%n");
+    }
+
+    /**
+     * Sets the sample mode for queries: a percentage of the rows, picked by the database where it can, or a
+     * fixed number of rows picked at random from the cursor. Statistics of a sample are shown as estimates.
+     */
+    public void sample(String[] argv) {
+        if (argv.length == 1) {
+            String arg = argv[0];
+            try {
+                if ("off".equalsIgnoreCase(arg)) {
+                    samplePercent = 0;
+                    sampleRows = 0;
+                } else if (arg.endsWith("%")) {
+                    double pct = Double.parseDouble(arg.substring(0, arg.length() - 1));
+                    if (!(pct > 0 && pct < 100)) {
+                        printf("The percentage must be above 0 and below 100%n%n");
+                        return;
+                    }
+                    samplePercent = pct;
+                    sampleRows = 0;
+                } else {
+                    int n = Integer.parseInt(arg);
+                    if (n <= 0) {
+                        printf("The number of rows must be above 0%n%n");
+                        return;
+                    }
+                    sampleRows = n;
+                    samplePercent = 0;
+                }
+            } catch (NumberFormatException e) {
+                println(e.getMessage());
+                return;
+            }
+        }
+        if (samplePercent > 0)
+            printf("Sampling is on. Queries return about %s%% of their rows, chosen at random (or use \"sample off\" command)%n%n", percent(samplePercent));
+        else if (sampleRows > 0)
+            printf("Sampling is on. Queries return %,d of their rows, chosen at random (or use \"sample off\" command)%n%n", sampleRows);
+        else
+            printf("Sampling is off%n%n");
+    }
+
+    private static String percent(double pct) {
+        return BigDecimal.valueOf(pct).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Wraps the query so the database keeps each row with the given probability, or returns null when the
+     * database is not known and the rows have to be left out while reading the cursor.
+     */
+    private String sampleSQL(String sql, double fraction) throws SQLException {
+        String query = sql.trim();
+        while (query.endsWith(";")) query = query.substring(0, query.length() - 1).trim();
+        String product = conn.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT);
+        String f = BigDecimal.valueOf(fraction).toPlainString();
+        if (product.contains("sqlite")) {       // random() is a 64-bit integer, its low 20 bits are uniform
+            long below = Math.round(fraction * 1048576);
+            return "SELECT * FROM (" + query + ") WHERE (random() & 1048575) < " + below;
+        }
+        if (product.contains("mysql") || product.contains("mariadb"))
+            return "SELECT * FROM (" + query + ") AS sampled WHERE RAND() < " + f;
+        if (product.contains("redshift") || product.contains("postgres"))
+            return "SELECT * FROM (" + query + ") AS sampled WHERE RANDOM() < " + f;
+        return null;
+    }
+
+    /**
+     * The sample mode as text, so the last query runs again when it changes.
+     */
+    private String sampleMode() {
+        return samplePercent > 0 ? samplePercent + "%" : sampleRows > 0 ? String.valueOf(sampleRows) : "";
+    }
+
+    private void sampled(QueryResult qr, String sampling) {
+        if (sampling == null) return;
+        qr.fraction = samplePercent / 100;
+        qr.sampling = sampling;
+        qr.estimateTotal = true;
+    }
+
+    /**
+     * Opens the last result in the full screen viewer, optionally at the given row.
+     */
+    public void view(String[] argv) {
+        if (qr == null || terminal == null) return;
+        if (qr.streamed) {
+            printf("The last result was streamed, use \"stream off\" and run it again to view it%n%n");
+            return;
+        }
+        int row = 0;
+        if (argv.length == 1) {
+            try {
+                row = Integer.parseInt(argv[0]) - 1;
+            } catch (NumberFormatException e) {
+                println(e.getMessage());
+                return;
+            }
+        }
+        new ResultViewer(terminal, qr.viewSource()).show(row);
+    }
+
+    /**
+     * Lists the cached results, or clears, pins, unpins or resizes the cache.
+     */
+    public void cache(String[] argv) {
+        String cmd = argv.length > 0 ? argv[0].toLowerCase() : "list";
+        List<ResultCache.Entry<QueryResult>> entries = cache.list();
+        try {
+            switch (cmd) {
+                case "list":
+                    break;
+                case "clear":
+                    List<String> pinned = cache.pinned();
+                    printf("Removed %d cached result(s) and %d saved result(s)%n%n", cache.clear(), disk.clear(pinned));
+                    return;
+                case "pin":
+                case "unpin":
+                    ResultCache.Entry<QueryResult> e = null;
+                    if (argv.length > 1) e = entries.get(Integer.parseInt(argv[1]) - 1);
+                    else if (lastSQL != null) e = cache.entry(cacheKey(lastSQL));
+                    if (e == null) {
+                        printf("The last result is not cached%n%n");
+                        return;
+                    }
+                    e.pinned = "pin".equals(cmd);
+                    break;
+                case "size":
+                    cache.resize(parseBytes(argv[1]));
+                    entries = cache.list();
+                    break;
+                case "disk":
+                    disk.resize(parseBytes(argv[1]), cache.pinned());
+                    break;
+                case "ttl":
+                    cache.ttlMillis = disk.ttlMillis = Long.parseLong(argv[1]) * 1000;
+                    break;
+                default:
+                    println("Usage: cache [list|clear|pin [<n>]|unpin [<n>]|size <bytes>|disk <bytes>|ttl <seconds>]");
+                    return;
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            println(e.getMessage());
+            return;
+        }
+
+        int width = Math.max(40, (terminal != null && terminal.getWidth() > 0 ? terminal.getWidth() : 120) - 44);
+        long now = System.currentTimeMillis();
+        printf("%3s  %10s  %9s  %5s  %5s  %s%n", "#", "Rows", "Size", "Age", "Hits", "SQL");
+        for (int i = 0; i < entries.size(); i++) {
+            ResultCache.Entry<QueryResult> e = entries.get(i);
+            String sql = (e.pinned ? "[pinned] " : "") + e.sql.replaceAll("\\s+", " ");
+            if (sql.length() > width) sql = sql.substring(0, width - 3) + "...";
+            printf("%3d  %,10d  %6.1f MB  %5s  %5d  %s%n", i + 1, e.value.rowCount, e.bytes / 1048576d,
+                    ResultCache.age(now - e.created), e.hits, sql);
+        }
+        printf("%d result(s), %.1f of %.1f MB | Disk: %d result(s), %.1f of %.1f MB | TTL: %s%n%n", entries.size(),
+                cache.bytes() / 1048576d, cache.maxBytes / 1048576d, disk.count(), disk.bytes() / 1048576d,
+                disk.maxBytes / 1048576d, cache.ttlMillis > 0 ? ResultCache.age(cache.ttlMillis) : "off");
+    }
+
+    /**
+     * Shows the 50th, 95th and 99th percentile of the time queries took, per query shape. With a number it
+     * breaks the times of that shape down by phase, so slow executes (the database), slow fetches (the
+     * network) and slow builds or renders (this program) can be told apart.
+     */
+    public void metrics(String[] argv) {
+        List<Metrics.Shape> shapes = metrics.list();
+        if (argv.length > 0 && "clear".equalsIgnoreCase(argv[0])) {
+            metrics.clear();
+            println("Metrics cleared");
+            println("");
+            return;
+        }
+        if (argv.length > 0) {
+            Metrics.Shape shape;
+            try {
+                shape = shapes.get(Integer.parseInt(argv[0]) - 1);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                println("Usage: metrics [<n>|clear]");
+                return;
+            }
+            println(shape.sql);
+            printf("%,d run(s), %,d rows, %.1f MB fetched%n", shape.runs, shape.rows, shape.bytes / 1048576d);
+            printf("%-10s  %10s  %10s  %10s%n", "Phase", "p50", "p95", "p99");
+            for (int p = 0; p < Metrics.PHASES.length; p++) {
+                printf("%-10s  %10s  %10s  %10s%n", Metrics.PHASES[p], Metrics.duration(shape.percentile(p, 0.5)),
+                        Metrics.duration(shape.percentile(p, 0.95)), Metrics.duration(shape.percentile(p, 0.99)));
+            }
+            println("");
+            return;
+        }
+        printf("%3s  %6s  %10s  %10s  %10s  %-9s  %s%n", "#", "Runs", "p50", "p95", "p99", "Slowest", "Query");
+        int width = terminal != null ? Math.max(terminal.getWidth() - 66, 20) : 60;
+        for (int i = 0; i < shapes.size(); i++) {
+            Metrics.Shape sh = shapes.get(i);
+            int slowest = 0;
+            for (int p = 1; p < Metrics.TOTAL; p++) {
+                if (sh.percentile(p, 0.5) > sh.percentile(slowest, 0.5)) slowest = p;
+            }
+            String sql = sh.sql.length() > width ? sh.sql.substring(0, width - 3) + "..." : sh.sql;
+            printf("%3d  %,6d  %10s  %10s  %10s  %-9s  %s%n", i + 1, sh.runs, Metrics.duration(sh.percentile(Metrics.TOTAL, 0.5)),
+                    Metrics.duration(sh.percentile(Metrics.TOTAL, 0.95)), Metrics.duration(sh.percentile(Metrics.TOTAL, 0.99)),
+                    Metrics.PHASES[slowest], sql);
+        }
+        println("");
+    }
+
+    /**
+     * Shows or changes what goes into the query log: off, sql, timing, full or color.
+     */
+    public void log(String[] argv) {
+        if (argv.length > 0) {
+            try {
+                log.mode = QueryLog.mode(argv[0]);
+            } catch (IllegalArgumentException e) {
+                println(e.getMessage());
+                return;
+            }
+        }
+        printf("Log: %s | Mode: %s | Rotate at %.1f MB, %d file(s)%n%n", log.file.getPath(), QueryLog.modeName(log.mode),
+                log.maxBytes / 1048576d, log.files);
+    }
+
+    /**
+     * Results are cached per connection and row limit, as the same SQL gives a different result for either.
+     */
+    private String cacheKey(String sql) {
+        return connectionKey() + maxRows + '\n' + ResultCache.normalize(sql);
+    }
+
+    /**
+     * The start of the cache keys of the current connection.
+     */
+    private String connectionKey() {
+        String conn = profile != null ? profile.host + '\n' + profile.user : "";
+        return conn + '\n';
+    }
+
+    /**
+     * Drops the results of the current connection, in memory and on disk, after statements which may have
+     * changed its data. Pinned results are kept. The last result is read again when its query runs next.
+     */
+    private void dropResults() {
+        String conn = connectionKey();
+        cache.clear(key -> key.startsWith(conn));
+        disk.clear(key -> key.startsWith(conn), cache.pinned());
+        stale = true;
+    }
+
+    /**
+     * Runs the last query on the database again, replacing its cached result, or with "schema" reads the
+     * tables and columns for tab completion again.
+     */
+    public void refresh(String[] argv) {
+        if (argv.length > 0 && "schema".equalsIgnoreCase(argv[0])) {
+            Profile p = profile;
+            if (p == null) return;
+            p.schemaError = null;
+            Schema schema = loadSchema(p);
+            if (p.schemaError != null) println(p.schemaError);
+            else printf("%,d tables and %,d columns in %,d ms%n%n", schema.tableCount, schema.columnCount, schema.loadMillis);
+            return;
+        }
+        if (lastSQL != null) processInput(lastSQL, statsOn, true);
+    }
+
+    /**
+     * Writes the rows of a query, or of the last query, to a file as they come from the cursor, without
+     * building a result in memory: "export csv|tsv|json|bin file [sql]". Takes the whole line, as the SQL may
+     * hold quotes which the line parser would remove. A file name with spaces goes in double quotes.
+     */
+    public void export(String line) {
+        String rest = line.trim().substring("export".length()).trim();
+        int sp = rest.indexOf(' ');
+        String format = (sp < 0 ? rest : rest.substring(0, sp)).toLowerCase();
+        rest = sp < 0 ? "" : rest.substring(sp + 1).trim();
+        String file;
+        if (rest.startsWith("\"")) {
+            int end = rest.indexOf('"', 1);
+            if (end < 0) end = rest.length();
+            file = rest.substring(1, end);
+            rest = end < rest.length() ? rest.substring(end + 1).trim() : "";
+        } else {
+            sp = rest.indexOf(' ');
+            file = sp < 0 ? rest : rest.substring(0, sp);
+            rest = sp < 0 ? "" : rest.substring(sp + 1).trim();
+        }
+        String sql = rest.isEmpty() ? lastSQL : rest, path = file;
+        if (!Exporter.isFormat(format) || file.isEmpty()) {
+            println("Usage: export csv|tsv|json|bin <file> [sql]");
+            return;
+        }
+        if (sql == null) {
+            println("No query to export");
+            return;
+        }
+
+        runTracked(line, () -> {
+            ResultSet rs = query(sql);
+            ResultSetMetaData md = rs.getMetaData();
+            int[] types = new int[md.getColumnCount()];
+            for (int c = 0; c < types.length; c++) types[c] = getColumnType(md.getColumnType(c + 1));
+            Exporter out;
+            long rows;
+            try {
+                out = new Exporter(new File(path).toPath());
+                try {
+                    rows = out.write(format, rs, types, () -> cancelled, n -> rowsFetched = n);
+                    rowsFetched = rows;
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                throw new IOException("Could not write " + path + ": " + e.getMessage(), e);
+            }
+            long bytes = out.bytes();
+            double secs = (System.nanoTime() - queryStart) / 1e9;
+            printf("Exported %,d rows to %s (%s) in %.2f s, %,.0f rows/s%n%n", rows, path,
+                    bytes < 1048576 ? String.format("%,.1f KB", bytes / 1024d) : String.format("%,.1f MB", bytes / 1048576d),
+                    secs, rows / Math.max(secs, 1e-9));
+            return rows;
+        });
+    }
+
+    /**
+     * Shows the distribution of a numeric column of a query, the last query by default, as a histogram. The
+     * values are counted into buckets while the rows are read from the cursor, so no rows are kept in memory
+     * and any number of rows can be shown.
+     */
+    public void hist(String line) {
+        String[] words = line.trim().split("\\s+", 4);
+        String column = words.length > 1 ? words[1].replace("\"", "") : "";
+        int buckets = 20, next = 2;
+        if (words.length > 2) {
+            try {
+                buckets = Integer.parseInt(words[2]);
+                next = 3;
+            } catch (NumberFormatException e) {
+                // no bucket count, the SQL starts here
+            }
+        }
+        String sql = words.length > next ? line.trim().split("\\s+", next + 1)[next] : lastSQL;
+        int count = buckets;
+        if (column.isEmpty() || buckets < 1 || buckets > 1000) {
+            println("Usage: hist <column> [buckets 1-1000] [sql]");
+            return;
+        }
+        if (sql == null) {
+            println("No query to show");
+            return;
+        }
+
+        runTracked(line, () -> {
+            ResultSet rs = query(sql);
+            ResultSetMetaData md = rs.getMetaData();
+            int col = 0;
+            for (int c = 1; c <= md.getColumnCount(); c++) {
+                if (md.getColumnLabel(c).equalsIgnoreCase(column)) col = c;
+            }
+            if (col == 0) {
+                println("No column " + column + " in the result");
+                return 0;
+            }
+            int t = getColumnType(md.getColumnType(col));
+            if (t != _INT_ && t != _REAL_) {
+                println("Column " + column + " is not numeric");
+                return 0;
+            }
+            Histogram h = new Histogram(count, t == _INT_);
+            long rows = 0;
+            while (rs.next()) {
+                if (cancelled) throw new SQLException("Query cancelled");
+                double val = rs.getDouble(col);
+                if (rs.wasNull()) h.addNull();
+                else h.add(val);
+                if ((++rows & 0xFF) == 0) rowsFetched = rows;
+            }
+            rowsFetched = rows;
+            h.finish();
+            printHistogram(md.getColumnLabel(col), h, rows);
+            return rows;
+        });
+    }
+
+    /**
+     * Runs a query, or the last one, every few seconds and shows its result full screen until q is pressed,
+     * see {@link WatchView}. The runs are logged once and their results are not cached.
+     */
+    public void watch(String line) {
+        String[] words = line.trim().split("\\s+", 3);
+        double secs = 0;
+        if (words.length > 1) {
+            try {
+                secs = Double.parseDouble(words[1]);
+            } catch (NumberFormatException e) {
+                // usage below
+            }
+        }
+        String sql = words.length > 2 ? words[2] : lastSQL;
+        if (secs < 0.1 || secs > 86400) {
+            println("Usage: watch <seconds, at least 0.1> [sql]");
+            return;
+        }
+        if (sql == null) {
+            println("No query to watch");
+            return;
+        }
+        if (terminal == null) return;
+        if (!connected()) {
+            println("Not connected, see the connect command");
+            return;
+        }
+        log.sql(line + NL);
+        Map<Long, int[]> widths = new HashMap<>();      // of the rows of the last run, by row hash
+        new WatchView(terminal, () -> watchRun(sql, widths), Math.round(secs * 1000), this::cancel).show();
+    }
+
+    /**
+     * One run of a watched query, on the scheduler thread of the view.
+     */
+    private WatchView.Snapshot watchRun(String sql, Map<Long, int[]> widths) throws SQLException {
+        ResultSet rs = null;
+        begin();
+        try {
+            rs = executeQuery(sql);
+            QueryResult r = new QueryResult(rs);
+            return r.watchSnapshot(widths);
+        } finally {
+            running = false;
+            if (rs != null) try {
+                rs.close();
+            } catch (SQLException e) {
+                // the rows are read already
+            }
+        }
+    }
+
+    /**
+     * One line per bucket with its range and a bar as long as its count relative to the largest bucket, the
+     * count and share written over the bar, in the colours of the table bars.
+     */
+    private void printHistogram(String column, Histogram h, long rows) {
+        NumberFormatter nf = new NumberFormatter();
+        int decimals = h.integral() ? 0 : Math.max(0, Math.min(DECIMALS, (int) -Math.floor(Math.log10(h.width()))));
+        String[] labels = new String[h.size()];
+        String[] counts = new String[h.size()];
+        long most = 0;
+        int labelWidth = column.length(), countWidth = 0;
+        for (int i = 0; i < h.size(); i++) {
+            double lo = h.lower(i), hi = lo + h.width();
+            if (h.integral())
+                labels[i] = h.width() == 1 ? nf.grouped((long) lo) : nf.grouped((long) lo) + " - " + nf.grouped((long) hi - 1);
+            else
+                labels[i] = nf.fixed(lo, decimals) + " - " + nf.fixed(hi, decimals);
+            long count = h.count(i);
+            counts[i] = nf.grouped(count) + String.format(" (%.1f%%)", 100d * count / Math.max(h.n, 1));
+            most = Math.max(most, count);
+            labelWidth = Math.max(labelWidth, labels[i].length());
+            countWidth = Math.max(countWidth, counts[i].length());
+        }
+        int width = terminal != null && terminal.getWidth() > 0 ? terminal.getWidth() : 80;
+        int barWidth = Math.max(countWidth, width - labelWidth - 4);
+        StringBuilder hr = new StringBuilder();
+        for (int i = 0; i < labelWidth + barWidth + 3; i++) hr.append('-');
+
+        StringBuilder line = new StringBuilder();
+        println(hr.toString());
+        line.append('|').append(column);
+        for (int i = column.length(); i < labelWidth; i++) line.append(' ');
+        line.append("|count");
+        for (int i = 5; i < barWidth; i++) line.append(' ');
+        println(line.append('|').toString());
+        println(hr.toString());
+        int color = 0;
+        for (int i = 0; i < h.size(); i++) {
+            line.setLength(0);
+            line.append('|').append(labels[i]);
+            for (int k = labels[i].length(); k < labelWidth; k++) line.append(' ');
+            line.append('|');
+            String text = counts[i];
+            int barLen = most == 0 ? 0 : (int) Math.round((double) h.count(i) / most * barWidth);
+            if (barLen == 0 && h.count(i) > 0) barLen = 1;
+            color = getNextBarColor(color);
+            if (barLen <= text.length()) {
+                line.append(barStyle[color]).append(text, 0, barLen).append(barReset).append(text, barLen, text.length());
+            } else {
+                line.append(barStyle[color]).append(text);
+                for (int k = text.length(); k < barLen; k++) line.append(' ');
+                line.append(barReset);
+            }
+            for (int k = Math.max(barLen, text.length()); k < barWidth; k++) line.append(' ');
+            println(line.append('|').toString());
+        }
+        println(hr.toString());
+
+        AttributedStringBuilder asb = new AttributedStringBuilder();
+        asb.style(AttributedStyle.BOLD.background(AttributedStyle.BRIGHT).foreground(AttributedStyle.YELLOW));
+        asb.append(String.format(rows == 1 ? "(%d row)" : "(%d rows)", rows));
+        asb.append(String.format(" | %d buckets of %s", h.size(), h.integral() ? nf.grouped((long) h.width()) : nf.fixed(h.width(), decimals)));
+        if (h.n > 0) {
+            int d = Math.min(DECIMALS, decimals + 2);
+            asb.append(" | Min ").append(h.integral() ? nf.grouped((long) h.min) : nf.fixed(h.min, d))
+                    .append(" | Max ").append(h.integral() ? nf.grouped((long) h.max) : nf.fixed(h.max, d))
+                    .append(" | Mean ").append(nf.fixed(h.sum / h.n, d));
+        }
+        if (h.nulls > 0) asb.append(" | Nulls ").append(nf.grouped(h.nulls));
+        if (h.invalid > 0) asb.append(" | NaN/Infinite ").append(nf.grouped(h.invalid));
+        asb.style(AttributedStyle.DEFAULT);
+        double secs = (System.nanoTime() - queryStart) / 1e9;
+        asb.append(String.format("%nRead in %.2f s, %,.0f rows/s, in constant memory%n%n", secs, rows / Math.max(secs, 1e-9)));
+        print(asb.toAnsi());
+    }
+
+    /**
+     * Loads a result from the disk cache, or returns null when there is none or it can't be read.
+     */
+    private QueryResult loadResult(String key) {
+        ByteBuffer buf = disk.load(key);
+        if (buf == null) return null;
+        try {
+            return new QueryResult(buf);
+        } catch (Exception e) {
+            disk.remove(key);
+            return null;
+        }
+    }
+
+    private void saveResult(String key) {
+        try {
+            disk.save(key, qr.readAt, qr.cacheBytes(), cache.pinned(), qr::save);
+        } catch (IOException e) {
+            println("Could not save the result to the disk cache: " + e.getMessage());
+        }
+    }
+
     public void processInput(final String line) {
         processInput(line, statsOn);
     }
 
+    /**
+     * Runs a query, or hands input with several statements, or one which doesn't return rows, to
+     * {@link #runScript}.
+     */
     public void processInput(final String line, final boolean showStats) {
-        if (line == null || "".equals(line)) return;
-        boolean newQuery = !line.equals(lastSQL);
+        if (line != null && !line.startsWith("//")) {
+            List<SqlScript> script = SqlScript.split(line);
+            if (script.size() > 1 || script.size() == 1 && script.get(0).kind != SqlScript.QUERY) {
+                runScript(script);
+                return;
+            }
+        }
+        processInput(line, showStats, false);
+    }
 
-        ResultSet rs = null;
+    /**
+     * Returns false when the query failed or was cancelled.
+     */
+    private boolean processInput(final String line, final boolean showStats, final boolean refresh) {
+        if (line == null || "".equals(line)) return true;
+        if (line.startsWith("//")) {
+            StringBuilder sb = new StringBuilder(line).append(NL);
+            for (int i = 0; i < line.length(); i++) {
+                sb.append('-');
+            }
+            log.sql(sb.append(NL).append(NL).toString());
+            return true;
+        }
+        boolean newQuery = !line.equals(lastSQL);
+        String bound;
         try {
-            if (line.startsWith("//")) {
-                log.println(line);
-                for (int i = 0; i < line.length(); i++) {
-                    log.print("-");
+            bound = bound(line);
+        } catch (SQLException e) {
+            println(e.getMessage());
+            return false;
+        }
+        if (!(newQuery || refresh || qr.streamed || !bound.equals(lastBinds) || !sampleMode().equals(lastSample)
+                || maxRows != lastMaxRows || stale)) {
+            qr.render(showStats, true);     // scale, hide, stats etc. show the first page only
+            return true;
+        }
+
+        QueryResult old = qr;
+        String key = cacheKey(line) + bound;
+        boolean fresh = streamRows > 0 || refresh || samplePercent > 0 || sampleRows > 0;   // samples are not cached, each run draws a new one
+        QueryResult hit = fresh ? null : cache.get(key);
+        if (hit == null && !fresh) {
+            hit = loadResult(key);
+            if (hit != null) cache.put(key, line, hit, hit.cacheBytes());
+        }
+        if (hit != null) {                  // render the cached result with the current settings
+            log.sql(line + NL);
+            qr = hit;
+            qr.fromCache = true;
+            qr.invalidate(null);
+            if (!formatting().equals(qr.formattedWith)) qr.reformat();     // precision changed since it was shown
+            if (newQuery) qr.bindState();
+            lastSQL = line;
+            lastBinds = bound;
+            lastSample = sampleMode();
+            lastMaxRows = maxRows;
+            stale = false;
+            if (old != null && old != qr && !cache.contains(old)) old.close();
+            Arrays.fill(qr.phases, 0);          // nothing was executed or fetched
+            qr.bytesFetched = 0;
+            qr.rowsRead = 0;
+            log.timing(String.format("-- %tF %<tT | %,d rows | cached%n", System.currentTimeMillis(), qr.rowCount));
+            qr.render(showStats, false);
+            return true;
+        }
+
+        return runTracked(line, () -> {
+            String sql = line, sampling = null;
+            double keep = 1;
+            if (samplePercent > 0 && SELECT.matcher(line).lookingAt()) {
+                sql = sampleSQL(line, samplePercent / 100);
+                sampling = "Sample ~" + percent(samplePercent) + "% of rows";
+                if (sql == null) {          // unknown dialect, the rows are left out on the cursor
+                    sql = line;
+                    keep = samplePercent / 100;
                 }
-                log.println();
-                log.println();
+            }
+            long execute = System.nanoTime();
+            ResultSet rs = query(sql);
+            execute = System.nanoTime() - execute;
+            if (sampleRows > 0) {
+                qr = new QueryResult(rs, Integer.MAX_VALUE, 1, sampleRows);
+            } else if (streamRows > 0) {
+                qr = new QueryResult(rs, streamRows, keep, 0);
+                sampled(qr, sampling);
+                qr.phases[Metrics.EXECUTE] = execute;
+                if (old != null && !cache.contains(old)) old.close();
+                if (newQuery) qr.bindState();
+                qr.streamed = true;
+                lastSQL = line;
+                lastBinds = bound;
+                lastSample = sampleMode();
+                lastMaxRows = maxRows;
+                stale = false;
+                qr.stream(rs, streamRows, showStats);
+                metrics.record(line, qr.phases, fetched, qr.bytesFetched);
+                return fetched;
             } else {
-                if (newQuery) {
-                    log.println(line);
-                    rs = stmt.executeQuery(line);
-                    qr = new QueryResult(rs);
-                    lastSQL = line;
-                }
-                qr.render(showStats);
+                qr = new QueryResult(rs, Integer.MAX_VALUE, keep, 0);
+                sampled(qr, sampling);
+            }
+            qr.phases[Metrics.EXECUTE] = execute;
+            if (qr.sampling == null) cache.put(key, line, qr, qr.cacheBytes());
+            if (old != null && !cache.contains(old)) old.close();
+            if (newQuery) qr.bindState();
+            lastSQL = line;
+            lastBinds = bound;
+            lastSample = sampleMode();
+            lastMaxRows = maxRows;
+            stale = false;
+            qr.render(showStats, false);
+            metrics.record(line, qr.phases, fetched, qr.bytesFetched);
+            if (qr.sampling == null) saveResult(key);
+            return fetched;
+        }) >= 0;
+    }
+
+    /**
+     * Runs a query, as a prepared statement from the cache of the connection when it has parameters.
+     */
+    private ResultSet executeQuery(String sql) throws SQLException {
+        StatementCache.Parsed parsed = StatementCache.parse(sql);
+        if (parsed.names.isEmpty()) {
+            current = stmt;
+            return stmt.executeQuery(sql);
+        }
+        PreparedStatement ps = prepare(parsed);
+        current = ps;
+        return ps.executeQuery();
+    }
+
+    /**
+     * The work of a command which runs SQL, see {@link #runTracked}. Returns the rows read or changed.
+     */
+    private interface Tracked {
+        long run() throws SQLException, IOException;
+    }
+
+    /**
+     * Resets the progress shown on the status line and the cancelled flag for a new run.
+     */
+    private void begin() {
+        fetched = 0;
+        rowsFetched = 0;
+        cancelled = false;
+        queryStart = System.nanoTime();
+        running = true;
+    }
+
+    /**
+     * Does the work of a command which runs SQL, with what all of them need around it: the progress for the
+     * status line and Ctrl-C, waiting for the connection, the statements and their timing in the query log,
+     * the error message and closing the result set opened with {@link #query}. Returns the rows read or
+     * changed, or -1 when there was no connection or the work failed or was cancelled. {@link #queryStart}
+     * is when the work started, after any wait for the connection.
+     */
+    private long runTracked(String logged, Tracked work) {
+        begin();
+        boolean executed = false, failed = true;
+        long rows = 0;
+        try {
+            if (!connected()) {
+                println(cancelled ? "Query cancelled" : "Not connected, see the connect command");
+                return -1;
             }
+            queryStart = System.nanoTime();     // waiting for the connection is not part of the query
+            log.sql(logged + NL);
+            executed = true;
+            rows = work.run();
+            failed = false;
         } catch (SQLException e) {
+            println(cancelled ? "Query cancelled" : e.getMessage());
+        } catch (IOException e) {
             println(e.getMessage());
         } finally {
-            if (rs != null) try {
-                rs.close();
+            running = false;
+            if (executed) {
+                log.timing(String.format("-- %tF %<tT | %,d rows | %.3f s%s%n", System.currentTimeMillis(),
+                        failed ? rowsFetched : rows, (System.nanoTime() - queryStart) / 1e9,
+                        cancelled ? " | cancelled" : failed ? " | failed" : ""));
+            }
+            if (open != null) try {
+                open.close();
             } catch (SQLException e) {
                 e.printStackTrace();
             }
+            open = null;
         }
+        return failed || cancelled ? -1 : rows;
     }
 
-    public void shutdown() {
+    /**
+     * Runs a query for the work of {@link #runTracked}, which closes its result set.
+     */
+    private ResultSet query(String sql) throws SQLException {
+        open = executeQuery(sql);
+        return open;
+    }
+
+    /**
+     * The cached prepared statement for the SQL with the bound values set. Fetch size and max rows are set on
+     * every use as they can change after the statement was prepared.
+     */
+    private PreparedStatement prepare(StatementCache.Parsed parsed) throws SQLException {
+        for (String name : parsed.names) {
+            if (!binds.containsKey(name)) throw new SQLException("No value for " + param(name) + ", see the bind command");
+        }
+        StatementCache sc = profile.statements(conn, preparedSize);
+        PreparedStatement ps = sc.get(parsed.sql, scrollable ? ResultSet.TYPE_SCROLL_INSENSITIVE : ResultSet.TYPE_FORWARD_ONLY,
+                updatable ? ResultSet.CONCUR_UPDATABLE : ResultSet.CONCUR_READ_ONLY);
+        ps.setFetchSize(fetchSize);
+        ps.setMaxRows(maxRows);
+        for (int i = 0; i < parsed.names.size(); i++) {
+            Object val = binds.get(parsed.names.get(i));
+            if (val == null) ps.setNull(i + 1, NULL);
+            else ps.setObject(i + 1, val);
+        }
+        return ps;
+    }
+
+    /**
+     * The values bound to the parameters of the SQL, which make a different result with the same SQL, or ""
+     * when it has no parameters.
+     */
+    private String bound(String sql) throws SQLException {
+        List<String> names = StatementCache.parse(sql).names;
+        if (names.isEmpty()) return "";
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            if (!binds.containsKey(name)) throw new SQLException("No value for " + param(name) + ", see the bind command");
+            sb.append('\n').append(param(name)).append('=').append(literal(binds.get(name)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Sets the value of a parameter, as in "bind id 10248" for :id or "bind 1 'ALFKI'" for the first ?, or
+     * removes it with "bind id". Lists the values and the prepared statements of the connection.
+     */
+    public void bind(String line) {
+        String rest = line.trim().substring("bind".length()).trim();
+        if ("clear".equalsIgnoreCase(rest)) {
+            binds.clear();
+        } else if (!rest.isEmpty()) {
+            int sp = rest.indexOf(' ');
+            String name = (sp < 0 ? rest : rest.substring(0, sp)).toLowerCase();
+            if (name.startsWith(":") || name.startsWith("?")) name = name.substring(1);
+            if (!name.matches("[a-z_][a-z0-9_]*|[1-9][0-9]*")) {
+                println("Usage: bind [<name> [<value>]|clear]");
+                return;
+            }
+            if (sp < 0) binds.remove(name);
+            else binds.put(name, value(rest.substring(sp + 1).trim()));
+        }
+        if (binds.isEmpty()) println("No parameters bound");
+        binds.forEach((name, val) -> printf("%-20s  %s%n", param(name), literal(val)));
+        StatementCache sc = conn != null ? profile.statements(conn) : null;
+        if (sc != null)
+            printf("Prepared statements: %d of %d cached | %,d reused, %,d prepared%n", sc.size(), preparedSize, sc.hits, sc.misses);
+        println("");
+    }
+
+    /**
+     * A number, null, a string in single quotes or else the text as a string.
+     */
+    private static Object value(String text) {
+        if ("null".equalsIgnoreCase(text)) return null;
+        if (text.length() > 1 && text.startsWith("'") && text.endsWith("'"))
+            return text.substring(1, text.length() - 1).replace("''", "'");
+        if (text.matches("-?\\d{1,18}")) return Long.parseLong(text);
+        if (text.matches("-?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?")) return new BigDecimal(text);
+        return text;
+    }
+
+    private static String literal(Object val) {
+        if (val == null) return "null";
+        if (val instanceof String) return "'" + ((String) val).replace("'", "''") + "'";
+        return val instanceof BigDecimal ? ((BigDecimal) val).toPlainString() : val.toString();
+    }
+
+    private static String param(String name) {
+        return Character.isDigit(name.charAt(0)) ? "?" + name : ":" + name;
+    }
+
+    /**
+     * Runs the statements of a SQL file, see {@link #runScript}.
+     */
+    public void run(String line) {
+        String file = line.trim().substring("run".length()).trim();
+        if (file.length() > 1 && file.startsWith("\"") && file.endsWith("\"")) file = file.substring(1, file.length() - 1);
+        if (file.isEmpty()) {
+            println("Usage: run <file.sql>");
+            return;
+        }
+        if (!new File(file).isFile()) {
+            println("No such file: " + file);
+            return;
+        }
+        String text;
         try {
-            if (stmt != null) stmt.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+            text = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+        } catch (IOException | InvalidPathException e) {
+            println("Could not read " + file + ": " + e.getMessage());
+            return;
         }
+        runScript(SqlScript.split(text));
+    }
+
+    /**
+     * Runs statements one after the other on the connection and stops at the first error. Statements which
+     * change data or the schema and follow each other are sent as one JDBC batch of up to {@code BATCH}
+     * statements. While autocommit is on each batch runs in a transaction, so SQLite writes it to disk once
+     * instead of once per statement, unless the statements begin and commit transactions themselves. Queries
+     * are shown as usual, the last one becoming the current result. A summary shows the rows and time of each
+     * statement and batch.
+     */
+    private void runScript(List<SqlScript> script) {
+        List<String> summary = new ArrayList<>();
+        int width = terminal != null ? Math.max(terminal.getWidth() - 40, 20) : 60;
+        long start = System.nanoTime(), changed = 0;
+        int statements = 0, batches = 0, batched = 0;
+        boolean wrote = false;      // a statement ran which may have changed data, failed ones too
+        boolean wrap = autoCommit && script.stream().noneMatch(st -> st.kind == SqlScript.CONTROL
+                && TRANSACTION.matcher(SqlScript.firstKeyword(st.sql)).matches());
+        cancelled = false;
+        for (int i = 0; i < script.size() && !cancelled; ) {
+            SqlScript first = script.get(i);
+            String sql = first.sql.replaceAll("\\s+", " ");
+            if (first.kind == SqlScript.QUERY) {
+                long t = System.nanoTime();
+                boolean ok = processInput(first.sql, statsOn, true);
+                summary.add(String.format("%11d  %10s  %10s  %s", first.line, ok ? String.format("%,d", qr.rowCount) : "failed",
+                        Metrics.duration(System.nanoTime() - t), sql.length() > width ? sql.substring(0, width - 3) + "..." : sql));
+                statements++;
+                i++;
+                if (!ok) break;
+                continue;
+            }
+            int end = i + 1;
+            if (batchable(first)) {
+                while (end < script.size() && end - i < BATCH && batchable(script.get(end))) end++;
+            }
+            String label = end - i > 1 ? String.format("Batch of %,d: %s", end - i, sql) : sql;
+            if (label.length() > width) label = label.substring(0, width - 3) + "...";
+            int from = i, to = end;
+            StringJoiner logged = new StringJoiner(NL);
+            for (int k = from; k < to; k++) logged.add(script.get(k).sql);
+            long rows = runTracked(logged.toString(),
+                    () -> to - from > 1 ? executeBatch(script, from, to, wrap) : executeUpdate(first));
+            boolean failed = rows < 0;
+            if (failed && stmt == null) break;      // not connected, no summary line
+            wrote = true;
+            int last = script.get(end - 1).line;
+            summary.add(String.format("%11s  %10s  %10s  %s", last > first.line ? first.line + "-" + last : String.valueOf(first.line),
+                    failed ? "failed" : String.format("%,d", rows), Metrics.duration(System.nanoTime() - queryStart), label));
+            if (failed) break;
+            changed += rows;
+            statements += end - i;
+            if (end - i > 1) {
+                batches++;
+                batched += end - i;
+            }
+            i = end;
+        }
+        if (wrote) dropResults();
+        if (script.size() == 1 && script.get(0).kind != SqlScript.QUERY) {     // a single statement at the prompt
+            if (statements == 1) printf("%,d row(s) changed in %s%n%n", changed, Metrics.duration(System.nanoTime() - start));
+            return;
+        }
+        printf("%11s  %10s  %10s  %s%n", "Line", "Rows", "Time", "Statement");
+        summary.forEach(this::println);
+        printf("%,d of %,d statement(s) run in %s, %,d of them in %,d batch(es), %,d row(s) changed%n%n", statements,
+                script.size(), Metrics.duration(System.nanoTime() - start), batched, batches, changed);
+    }
+
+    /**
+     * Statements with parameters run on their own as prepared statements.
+     */
+    private static boolean batchable(SqlScript st) {
+        return st.kind == SqlScript.UPDATE && StatementCache.parse(st.sql).names.isEmpty();
+    }
+
+    private long executeUpdate(SqlScript st) throws SQLException {
+        StatementCache.Parsed parsed = StatementCache.parse(st.sql);
+        Statement s = parsed.names.isEmpty() ? stmt : prepare(parsed);
+        current = s;
+        if (s == stmt ? stmt.execute(st.sql) : ((PreparedStatement) s).execute()) {
+            s.getResultSet().close();       // like PRAGMA journal_mode = WAL, the rows aren't shown
+            return 0;
+        }
+        return st.changesRows() ? Math.max(s.getUpdateCount(), 0) : 0;
+    }
+
+    /**
+     * Runs statements {@code from} to {@code to} of the script as one batch and returns the rows they changed.
+     * When the batch fails the error names the line of the statement which failed.
+     */
+    private long executeBatch(List<SqlScript> script, int from, int to, boolean wrap) throws SQLException {
+        if (wrap) conn.setAutoCommit(false);
+        current = stmt;
         try {
-            if (conn != null) conn.close();
+            for (int k = from; k < to; k++) stmt.addBatch(script.get(k).sql);
+            int[] counts = stmt.executeBatch();
+            if (wrap) conn.commit();
+            long rows = 0;
+            for (int k = 0; k < counts.length; k++) {
+                if (counts[k] > 0 && script.get(from + k).changesRows()) rows += counts[k];
+            }
+            return rows;
+        } catch (BatchUpdateException e) {
+            if (wrap) conn.rollback();
+            int[] counts = e.getUpdateCounts();
+            int failed = counts == null ? 0 : counts.length;        // drivers which stop at the error
+            for (int k = 0; counts != null && k < counts.length; k++) {
+                if (counts[k] == Statement.EXECUTE_FAILED) {        // drivers which go on after it
+                    failed = k;
+                    break;
+                }
+            }
+            String where = from + failed < to ? "Line " + script.get(from + failed).line + ": " : "";
+            throw new SQLException(where + e.getMessage() + (wrap ? " (the batch was rolled back)" : ""), e);
         } catch (SQLException e) {
-            e.printStackTrace();
+            if (wrap) conn.rollback();
+            throw e;
+        } finally {
+            stmt.clearBatch();
+            if (wrap) conn.setAutoCommit(true);
         }
+    }
 
-        if (log != null) {
-            log.flush();
-            log.close();
+    /**
+     * Cancels the running query. Called from the terminal thread when Ctrl-C is pressed.
+     */
+    public void cancel() {
+        if (!running) return;
+        cancelled = true;
+        Statement s = current != null ? current : stmt;
+        if (s != null) try {
+            s.cancel();
+        } catch (SQLException e) {
+            // the fetch loop stops on the cancelled flag
         }
     }
 
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getRowsFetched() {
+        return rowsFetched;
+    }
+
+    public long getElapsedNanos() {
+        return System.nanoTime() - queryStart;
+    }
+
+    public void shutdown() {
+        cache.clear();
+        if (qr != null) qr.close();
+        if (connecting != null && !connecting.isDone()) {
+            connecting.cancel(true);        // still connecting, the daemon thread ends with the program
+        } else {
+            try {
+                if (stmt != null) stmt.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            try {
+                if (conn != null) conn.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        profiles.values().forEach(Profile::close);
+
+        log.close();
+    }
+
     private int getNextBarColor(int color) {
         return (color == AttributedStyle.CYAN) ? AttributedStyle.RED : color + 1;
     }
 
+    /**
+     * ANSI sequence which switches the background to the given bar colour, indexed by colour.
+     */
+    private static final String[] barStyle = new String[AttributedStyle.CYAN + 1];
+    private static final String barReset;
+
+    static {
+        String ansi = null;
+        for (int color = AttributedStyle.RED; color <= AttributedStyle.CYAN; color++) {
+            ansi = new AttributedStringBuilder().style(AttributedStyle.DEFAULT.background(color)).append('x').toAnsi();
+            barStyle[color] = ansi.substring(0, ansi.indexOf('x'));
+        }
+        barReset = ansi.substring(ansi.indexOf('x') + 1);
+    }
+
+    private int pageRows() {
+        int rows = terminal != null ? terminal.getHeight() : 0;
+        return rows > 0 ? rows : 50;
+    }
+
     private boolean exclude(String c) {
         return setEx.contains(c.toLowerCase());
     }
@@ -275,8 +1702,10 @@ public class SQLEngine {
 
     private void print(String s) {
         if (terminal != null) {
-            terminal.writer().print(s);
-            log.print(s);
+            synchronized (terminal) {
+                terminal.writer().print(s);
+            }
+            log.output(s);
         } else {
             System.out.print(s);
         }
@@ -284,8 +1713,10 @@ public class SQLEngine {
 
     private void println() {
         if (terminal != null) {
-            terminal.writer().println();
-            log.println();
+            synchronized (terminal) {
+                terminal.writer().println();
+            }
+            log.output(NL);
         } else {
             System.out.println();
         }
@@ -293,8 +1724,10 @@ public class SQLEngine {
 
     private void println(String s) {
         if (terminal != null) {
-            terminal.writer().println(s);
-            log.println(s);
+            synchronized (terminal) {
+                terminal.writer().println(s);
+            }
+            log.output(s + NL);
         } else {
             System.out.println(s);
         }
@@ -302,13 +1735,26 @@ public class SQLEngine {
 
     private void printf(String f, Object... args) {
         if (terminal != null) {
-            terminal.writer().printf(f, args);
-            log.printf(f, args);
+            String s = String.format(f, args);
+            synchronized (terminal) {
+                terminal.writer().print(s);
+            }
+            log.output(s);
         } else {
             System.out.printf(f, args);
         }
     }
 
+    private void flush() {
+        if (terminal != null) {
+            synchronized (terminal) {
+                terminal.flush();
+            }
+        } else {
+            System.out.flush();
+        }
+    }
+
     public static void main(String[] args) {
         int[] numbers = new int[10];
         for (int i = 0; i < numbers.length; i++) {
@@ -317,166 +1763,760 @@ public class SQLEngine {
         Arrays.stream(numbers).filter(n -> n < 5).forEach(n -> System.out.println(n));
     }
 
-    private class QueryResult {
+    class QueryResult {
         String[] cols;
         int[] type;
+        Column[] columns;
+        int rowCount;
         int[] dataWidth;
         int[] colWidth;
         int[] minBarLen;
+        int[] maxBarLen;
+        boolean[] dirty;    // columns whose bar geometry needs to be recalculated
+        long[] lMin;
+        long[] lMax;
         long[] iMin;
         long[] iMax;
         double[] rMin;
         double[] rMax;
         double[] interval;
-        List<List<String>> rows = new ArrayList<>();
-        List<List<Object>> data = new ArrayList<>();
+        boolean[] overflow;
+        boolean measured;
+        String formattedWith;       // the decimals dataWidth and stats were formatted with, see formatting
+        boolean exhausted;
+        boolean streamed;
+        String hr;
+        int[] visible;      // columns which are not hidden
+        int[] edges;        // character offset of the '|' left of each visible column, and of the last one
+        boolean[] bars;     // columns drawn with bars
+        float[] colScale;
+        String blanks = "";
+        int pending;        // rows written since the last flush
+        final StringBuilder line = new StringBuilder(256);
+        final StringBuilder cellBuf = new StringBuilder(32);
+        final NumberFormatter numbers = new NumberFormatter();
         List<List<String>> stats = new ArrayList<>();
-        SummaryStatistics[] summaryStats;
+        ColumnStats[] summaryStats;
+        SpillFile spill;
+        long spilled;       // bytes moved to spill files, including those of earlier batches
+        long readAt;
+        boolean fromCache;
+        final long[] phases = new long[Metrics.TOTAL];     // nanos of the last run, see Metrics.PHASES
+        long bytesFetched;      // rough size of the values read from the driver
+        long rowsRead;          // rows read from the cursor in the last run, with phases for the footer
+        private final double keep;      // chance of a row from the cursor being kept, below 1 when sampling
+        private Random random;
+        double fraction = 1;    // estimated share of the rows of the query held here, below 1 for a sample
+        String sampling;        // how the rows were sampled, for the footer
+        boolean estimateTotal;  // each row was kept by chance, so the footer estimates the rows of the query
 
         QueryResult(ResultSet rs) throws SQLException {
+            this(rs, Integer.MAX_VALUE);
+        }
+
+        QueryResult(ResultSet rs, int limit) throws SQLException {
+            this(rs, limit, 1, 0);
+        }
+
+        /**
+         * Reads at most {@code limit} rows of the result, more can be read later with {@link #read}. Each row is
+         * kept with the chance {@code keep}, or with {@code reservoir} above 0 the result is a random sample of
+         * that many rows of the whole cursor.
+         */
+        QueryResult(ResultSet rs, int limit, double keep, int reservoir) throws SQLException {
+            this.keep = keep;
+            if (keep < 1 || reservoir > 0) random = new Random();
             ResultSetMetaData md = rs.getMetaData();
-            cols = new String[md.getColumnCount()];
+            init(md.getColumnCount());
+            for (int c = 0; c < cols.length; c++) {
+                cols[c] = md.getColumnName(c + 1).toLowerCase();
+                type[c] = getColumnType(md.getColumnType(c + 1));
+//                printf("%s (%d -> %d)%n", cols[c], md.getColumnType(c + 1), type[c]);
+            }
+            createColumns();
+
+            if (reservoir > 0) sample(rs, reservoir);
+            else read(rs, limit);
+            readAt = System.currentTimeMillis();
+        }
+
+        /**
+         * Loads a result saved by {@link #save}. The buffer is positioned after the disk cache header.
+         */
+        QueryResult(ByteBuffer buf) throws SQLException {
+            keep = 1;
+            readAt = buf.getLong();
+            init(buf.getInt());
+            rowCount = buf.getInt();
+            exhausted = true;
+            for (int c = 0; c < cols.length; c++) {
+                cols[c] = DiskCache.readString(buf);
+                type[c] = buf.getInt();
+            }
+            createColumns();
+
+            for (int c = 0; c < cols.length; c++) {
+                lMin[c] = buf.getLong();
+                lMax[c] = buf.getLong();
+                iMin[c] = buf.getLong();
+                iMax[c] = buf.getLong();
+                rMin[c] = buf.getDouble();
+                rMax[c] = buf.getDouble();
+
+                Column col = columns[c];
+                long[] nulls = new long[buf.getInt() > 0 ? (rowCount + 63) >>> 6 : 0];
+                for (int i = 0; i < nulls.length; i++) nulls[i] = buf.getLong();
+                switch (type[c]) {
+                    case _BOOL_:
+                        Column.Bools bcol = (Column.Bools) col;
+                        long bits = 0;
+                        for (int r = 0; r < rowCount; r++) {
+                            if ((r & 63) == 0) bits = buf.getLong();
+                            if (isSet(nulls, r)) bcol.addNull();
+                            else bcol.add((bits & (1L << r)) != 0);
+                        }
+                        break;
+                    case _INT_:
+                        Column.Longs lcol = (Column.Longs) col;
+                        for (int r = 0; r < rowCount; r++) {
+                            long lval = buf.getLong();
+                            if (isSet(nulls, r)) lcol.addNull();
+                            else lcol.add(lval);
+                        }
+                        break;
+                    case _REAL_:
+                        Column.Doubles dcol = (Column.Doubles) col;
+                        for (int r = 0; r < rowCount; r++) {
+                            double dval = buf.getDouble();
+                            if (isSet(nulls, r)) dcol.addNull();
+                            else dcol.add(dval);
+                        }
+                        break;
+                    default:
+                        Column.Strings scol = (Column.Strings) col;
+                        String[] dict = new String[buf.getInt()];
+                        for (int i = 0; i < dict.length; i++) dict[i] = DiskCache.readString(buf);
+                        for (int r = 0; r < rowCount; r++) {
+                            String sval = dict[buf.getInt()];
+                            if (isSet(nulls, r)) scol.addNull();
+                            else scol.add(sval);
+                        }
+                        break;
+                }
+
+                summaryStats[c] = ColumnStats.read(buf);
+                spillIfNeeded();
+            }
+        }
+
+        private boolean isSet(long[] bits, int r) {
+            return bits.length > 0 && (bits[r >>> 6] & (1L << r)) != 0;
+        }
+
+        /**
+         * Writes the column names and types, the values and the statistics of the columns in the format read
+         * by {@link #QueryResult(ByteBuffer)}. Each column is written in one piece, nulls as a bitmap and
+         * strings as a dictionary followed by the code of every row.
+         */
+        private void save(DataOutputStream out) throws IOException {
+            out.writeInt(cols.length);
+            out.writeInt(rowCount);
+            for (int c = 0; c < cols.length; c++) {
+                DiskCache.writeString(out, cols[c]);
+                out.writeInt(type[c]);
+            }
+
+            for (int c = 0; c < cols.length; c++) {
+                out.writeLong(lMin[c]);
+                out.writeLong(lMax[c]);
+                out.writeLong(iMin[c]);
+                out.writeLong(iMax[c]);
+                out.writeDouble(rMin[c]);
+                out.writeDouble(rMax[c]);
+
+                Column col = columns[c];
+                out.writeInt(col.nullCount);
+                if (col.nullCount > 0) writeBits(out, col::isNull);
+                switch (type[c]) {
+                    case _BOOL_:
+                        writeBits(out, ((Column.Bools) col)::get);
+                        break;
+                    case _INT_:
+                        Column.Longs lcol = (Column.Longs) col;
+                        for (int r = 0; r < rowCount; r++) out.writeLong(lcol.get(r));
+                        break;
+                    case _REAL_:
+                        Column.Doubles dcol = (Column.Doubles) col;
+                        for (int r = 0; r < rowCount; r++) out.writeDouble(dcol.get(r));
+                        break;
+                    default:
+                        Column.Strings scol = (Column.Strings) col;
+                        out.writeInt(scol.dictSize());
+                        for (int i = 0; i < scol.dictSize(); i++) DiskCache.writeString(out, scol.value(i));
+                        for (int r = 0; r < rowCount; r++) out.writeInt(scol.code(r));
+                        break;
+                }
+
+                summary(c).write(out);
+            }
+        }
+
+        private void writeBits(DataOutputStream out, IntPredicate bit) throws IOException {
+            long bits = 0;
+            for (int r = 0; r < rowCount; r++) {
+                if (bit.test(r)) bits |= 1L << r;
+                if ((r & 63) == 63 || r == rowCount - 1) {
+                    out.writeLong(bits);
+                    bits = 0;
+                }
+            }
+        }
+
+        /**
+         * Allocates the per column arrays.
+         */
+        private void init(int n) {
+            cols = new String[n];
             type = new int[cols.length];
+            columns = new Column[cols.length];
             dataWidth = new int[cols.length];
             colWidth = new int[cols.length];
             minBarLen = new int[cols.length];
+            maxBarLen = new int[cols.length];
+            dirty = new boolean[cols.length];
+            Arrays.fill(dirty, true);
+            lMin = new long[cols.length];
+            lMax = new long[cols.length];
             iMin = new long[cols.length];
             iMax = new long[cols.length];
             rMin = new double[cols.length];
             rMax = new double[cols.length];
             interval = new double[cols.length];
-            summaryStats = new SummaryStatistics[cols.length];
+            overflow = new boolean[cols.length];
+            summaryStats = new ColumnStats[cols.length];
+
+            // initialize
+            for (int c = 0; c < cols.length; c++) {
+                lMin[c] = Long.MAX_VALUE;
+                lMax[c] = Long.MIN_VALUE;
+                iMin[c] = Long.MAX_VALUE;
+                iMax[c] = Long.MIN_VALUE;
+                rMin[c] = Double.MAX_VALUE;
+                rMax[c] = Double.MIN_VALUE;
+            }
+        }
+
+        /**
+         * Creates the column store for the column types.
+         */
+        private void createColumns() {
+            for (int c = 0; c < cols.length; c++) {
+                switch (type[c]) {
+                    case _BOOL_:
+                        columns[c] = new Column.Bools();
+                        break;
+                    case _INT_:
+                        columns[c] = new Column.Longs();
+                        break;
+                    case _REAL_:
+                        columns[c] = new Column.Doubles();
+                        break;
+                    default:
+                        columns[c] = new Column.Strings();
+                        break;
+                }
+                if (type[c] == _BOOL_ || type[c] == _CHAR_ || type[c] == _OTHER_) setEx.add(cols[c]);
+            }
+        }
+
+        /**
+         * Resets the scale and hidden columns for a new query, keeping locked settings of columns which are
+         * still present.
+         */
+        private void bindState() {
             if (!scaleLocked) scale.clear();
             if (!hiddenLocked) hidden.clear();
 
-            Set<String> columns = new HashSet<>();
-
-            // initialize
+            Set<String> columnNames = new HashSet<>();
             for (int c = 0; c < cols.length; c++) {
-                iMin[c] = Long.MAX_VALUE;
-                iMax[c] = Long.MIN_VALUE;
-                rMin[c] = Double.MAX_VALUE;
-                rMax[c] = Double.MIN_VALUE;
-                cols[c] = md.getColumnName(c + 1).toLowerCase();
-                type[c] = getColumnType(md.getColumnType(c + 1));
-                if (type[c] == _BOOL_ || type[c] == _CHAR_ || type[c] == _OTHER_) setEx.add(cols[c]);
-                if (!exclude(cols[c])) summaryStats[c] = new SummaryStatistics();
                 if (!(scaleLocked && scale.containsKey(cols[c]))) scale.put(cols[c], 1f);
-                columns.add(cols[c]);
-//                printf("%s (%d -> %d)%n", cols[c], md.getColumnType(c + 1), type[c]);
+                columnNames.add(cols[c]);
             }
 
             // remove non-existent columns from scale
             List<String> old = new ArrayList<>(scale.keySet());
             old.forEach(c -> {
-                if (!columns.contains(c)) scale.remove(c);
+                if (!columnNames.contains(c)) scale.remove(c);
             });
             if (scale.size() == 0) scaleLocked = false;
 
             // remove non-existent columns from hidden
             old = new ArrayList<>(hidden);
             old.forEach(c -> {
-                if (!columns.contains(c)) hidden.remove(c);
+                if (!columnNames.contains(c)) hidden.remove(c);
             });
             if (hidden.size() == 0) hiddenLocked = false;
+        }
 
-            // Read the data and store in local structures
-            String sval = "";
-            int len;
-            while (rs.next()) {
-                List<String> r = new ArrayList<>();
-                List<Object> d = new ArrayList<>();
-                rows.add(r);
-                data.add(d);
+        /**
+         * Appends up to {@code limit} rows from the cursor to the column store and returns the number of rows
+         * read. Values are kept as primitives and only formatted when rendered.
+         */
+        private int read(ResultSet rs, int limit) throws SQLException {
+            int n = 0;
+            long fetch = 0, start = System.nanoTime(), t = start;     // rs.next() is fetch, the rest is build
+            long bytes = 0;
+            while (n < limit) {
+                if (cancelled) throw new SQLException("Query cancelled");
+                boolean more = rs.next();
+                long now = System.nanoTime();
+                if (fetched == 0) {
+                    phases[Metrics.FIRST_ROW] = now - t;
+                    start += now - t;
+                } else {
+                    fetch += now - t;
+                }
+                if (!more) {
+                    exhausted = true;
+                    break;
+                }
+                if ((++fetched & 0xFF) == 0) rowsFetched = fetched;
+                if (keep < 1 && random.nextDouble() >= keep) {     // left out of the sample, values not read
+                    t = System.nanoTime();
+                    continue;
+                }
                 for (int c = 0; c < cols.length; c++) {
                     int c1 = c + 1;
                     switch (type[c]) {
                         case _BOOL_:
+                            Column.Bools bcol = (Column.Bools) columns[c];
                             boolean bval = rs.getBoolean(c1);
-                            sval = String.valueOf(bval);
-                            len = Math.max(sval.length(), cols[c].length());
-                            if (len > dataWidth[c]) dataWidth[c] = len;
-                            r.add(sval);
-                            d.add(bval);
+                            bytes++;
+                            if (rs.wasNull()) bcol.addNull();
+                            else bcol.add(bval);
                             break;
                         case _INT_:
                             long lval = rs.getLong(c1);
-                            long abslval = Math.abs(lval);
-                            sval = String.format(exclude(cols[c]) ? "%d" : "%,d", lval);
-                            len = Math.max(sval.length(), cols[c].length());
-                            if (len > dataWidth[c]) dataWidth[c] = len;
-                            if (abslval < iMin[c]) iMin[c] = abslval;
-                            if (abslval > iMax[c]) iMax[c] = abslval;
-                            r.add(sval);
-                            d.add(lval);
-                            if (!exclude(cols[c])) summaryStats[c].addValue(lval);
+                            bytes += 8;
+                            if (rs.wasNull()) columns[c].addNull();
+                            else addLong(c, lval);
                             break;
                         case _REAL_:
                             double dval = rs.getDouble(c1);
-                            double absdval = Math.abs(dval);
-                            sval = format(dval);
-                            len = Math.max(sval.length(), cols[c].length());
-                            if (len > dataWidth[c]) dataWidth[c] = len;
-                            if (absdval < rMin[c]) rMin[c] = absdval;
-                            if (absdval > rMax[c]) rMax[c] = absdval;
-                            r.add(sval);
-                            d.add(dval);
-                            if (!exclude(cols[c])) summaryStats[c].addValue(dval);
+                            bytes += 8;
+                            if (rs.wasNull()) columns[c].addNull();
+                            else addDouble(c, dval);
                             break;
                         case _CHAR_:
                         case _OTHER_:
                         default:
-                            sval = nvl(rs.getString(c1), "");
-                            len = Math.max(sval.length(), cols[c].length());
-                            if (len > dataWidth[c]) dataWidth[c] = len;
-                            r.add(sval);
-                            d.add(sval);
+                            Column.Strings scol = (Column.Strings) columns[c];
+                            String sval = rs.getString(c1);
+                            if (sval == null) scol.addNull();
+                            else scol.add(sval);
+                            if (sval != null) bytes += sval.length();
+                            break;
+                    }
+                }
+                rowCount++;
+                n++;
+                if ((rowCount & Column.CHUNK_MASK) == 0) spillIfNeeded();
+                t = System.nanoTime();
+            }
+            rowsFetched = fetched;
+            rowsRead = fetched;
+            long end = System.nanoTime();
+            phases[Metrics.FETCH] += fetch;
+            phases[Metrics.BUILD] += end - start - fetch;
+            bytesFetched += bytes;
+            return n;
+        }
+
+        /**
+         * Adds a value to an integer column, keeping track of the range of its bars.
+         */
+        private void addLong(int c, long val) {
+            long abs = Math.abs(val);
+            if (val < lMin[c]) lMin[c] = val;
+            if (val > lMax[c]) lMax[c] = val;
+            if (abs < iMin[c]) iMin[c] = abs;
+            if (abs > iMax[c]) iMax[c] = abs;
+            ((Column.Longs) columns[c]).add(val);
+        }
+
+        private void addDouble(int c, double val) {
+            double abs = Math.abs(val);
+            if (abs < rMin[c]) rMin[c] = abs;
+            if (abs > rMax[c]) rMax[c] = abs;
+            ((Column.Doubles) columns[c]).add(val);
+        }
+
+        /**
+         * Reads a random sample of {@code size} rows from the whole cursor, each row having the same chance to be
+         * in it, with reservoir sampling (Vitter's algorithm L). The rows between two picks are skipped without
+         * reading their values, and only the sample is held in memory until it is added to the columns.
+         */
+        private void sample(ResultSet rs, int size) throws SQLException {
+            long start = System.nanoTime(), bytes = 0;
+            Object[][] reservoir = new Object[size][];
+            long seen = 0, skip = 0;
+            double w = 1;
+            while (true) {
+                if (cancelled) throw new SQLException("Query cancelled");
+                if (!rs.next()) break;
+                if (seen == 0) phases[Metrics.FIRST_ROW] = System.nanoTime() - start;
+                if ((++seen & 0xFF) == 0) rowsFetched = seen;
+                if (seen <= size) {
+                    reservoir[(int) seen - 1] = row(rs);
+                    if (seen == size) w = Math.exp(Math.log(random.nextDouble()) / size);
+                } else if (skip > 0) {
+                    skip--;
+                    continue;
+                } else {
+                    reservoir[random.nextInt(size)] = row(rs);
+                    w *= Math.exp(Math.log(random.nextDouble()) / size);
+                }
+                if (seen >= size) skip = (long) Math.floor(Math.log(random.nextDouble()) / Math.log(1 - w));
+            }
+            fetched = seen;
+            rowsFetched = seen;
+            rowsRead = seen;
+            long build = System.nanoTime();
+            for (int r = 0; r < Math.min(seen, size); r++) {
+                Object[] row = reservoir[r];
+                for (int c = 0; c < cols.length; c++) {
+                    Object val = row[c];
+                    if (val == null) {
+                        columns[c].addNull();
+                        continue;
+                    }
+                    switch (type[c]) {
+                        case _BOOL_:
+                            ((Column.Bools) columns[c]).add((Boolean) val);
+                            bytes++;
+                            break;
+                        case _INT_:
+                            addLong(c, (Long) val);
+                            bytes += 8;
                             break;
+                        case _REAL_:
+                            addDouble(c, (Double) val);
+                            bytes += 8;
+                            break;
+                        default:
+                            ((Column.Strings) columns[c]).add((String) val);
+                            bytes += ((String) val).length();
+                    }
+                }
+                rowCount++;
+                if ((rowCount & Column.CHUNK_MASK) == 0) spillIfNeeded();
+            }
+            exhausted = true;
+            fraction = seen > size ? (double) size / seen : 1;
+            sampling = seen > size ? String.format("Sample of %,d from %,d rows", size, seen) : null;
+            long end = System.nanoTime();
+            phases[Metrics.FETCH] = build - start - phases[Metrics.FIRST_ROW];
+            phases[Metrics.BUILD] = end - build;
+            bytesFetched = bytes;
+        }
+
+        /**
+         * The values of the current row of the cursor, null for a null.
+         */
+        private Object[] row(ResultSet rs) throws SQLException {
+            Object[] row = new Object[cols.length];
+            for (int c = 0; c < cols.length; c++) {
+                int c1 = c + 1;
+                switch (type[c]) {
+                    case _BOOL_:
+                        row[c] = rs.getBoolean(c1);
+                        break;
+                    case _INT_:
+                        row[c] = rs.getLong(c1);
+                        break;
+                    case _REAL_:
+                        row[c] = rs.getDouble(c1);
+                        break;
+                    default:
+                        row[c] = rs.getString(c1);
+                }
+                if (rs.wasNull()) row[c] = null;
+            }
+            return row;
+        }
+
+        /**
+         * Moves the complete chunks of every column to a memory mapped temp file once the result passes the
+         * spillrows or spillbytes limit from app.ini. Called each time a chunk fills up, so the heap never holds
+         * much more than the limit no matter how many rows the query returns.
+         */
+        private void spillIfNeeded() throws SQLException {
+            boolean over = spillRows > 0 && rowCount >= spillRows;
+            if (!over && spillBytes > 0) over = estimateBytes() >= spillBytes;
+            if (!over) return;
+            try {
+                if (spill == null) spill = new SpillFile();
+                long before = spill.bytes();
+                for (Column col : columns) col.spill(spill);
+                spilled += spill.bytes() - before;
+            } catch (IOException e) {
+                throw new SQLException("Could not spill to disk: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Approximate number of bytes held on the heap by the column store.
+         */
+        private long estimateBytes() {
+            long bytes = 0;
+            for (Column col : columns) bytes += col.estimateBytes();
+            return bytes;
+        }
+
+        /**
+         * What keeping the result costs the cache: its memory and its spill files, so spilled results don't
+         * stay around for free.
+         */
+        private long cacheBytes() {
+            return estimateBytes() + spilled;
+        }
+
+        /**
+         * Deletes the spill file. The columns must not be read afterwards.
+         */
+        void close() {
+            if (spill != null) spill.close();
+            spill = null;
+        }
+
+        /**
+         * Drops the rows held in the column store but keeps the layout, so the next batch of a streamed result
+         * renders the same way.
+         */
+        private void clear() {
+            for (Column col : columns) col.clear();
+            close();
+            rowCount = 0;
+            summaryStats = new ColumnStats[cols.length];
+        }
+
+        /**
+         * Finds the width of the widest formatted value of each column. Integer widths follow from the
+         * min/max values and strings track their longest value while reading, so only real numbers need a
+         * pass over the data. The result is kept until the query changes.
+         */
+        private void measure() {
+            measure(null, null);
+        }
+
+        /**
+         * Measures the widths, taking the widths of real numbers from the rows of an earlier result with the
+         * same hash, see {@link #rowHash}, and formatting only those of the other rows. Afterwards widths
+         * holds the widths of the real numbers of the rows of this result.
+         */
+        private void measure(long[] hashes, Map<Long, int[]> widths) {
+            if (measured) return;
+            int[] real = null;          // widest real number of each column
+            if (widths != null) {
+                real = new int[cols.length];
+                Map<Long, int[]> known = new HashMap<>(widths);
+                widths.clear();
+                for (int r = 0; r < rowCount; r++) {
+                    int[] w = known.get(hashes[r]);
+                    if (w == null) {
+                        w = new int[cols.length];
+                        for (int c = 0; c < cols.length; c++) {
+                            if (type[c] == _REAL_ && !columns[c].isNull(r))
+                                w[c] = format(c, ((Column.Doubles) columns[c]).get(r)).length();
+                        }
+                    }
+                    widths.put(hashes[r], w);
+                    for (int c = 0; c < cols.length; c++) {
+                        real[c] = Math.max(real[c], w[c]);
                     }
                 }
             }
+            for (int c = 0; c < cols.length; c++) {
+                Column col = columns[c];
+                int len = cols[c].length();
+                boolean values = col.nullCount < rowCount;
+                switch (type[c]) {
+                    case _BOOL_:
+                        if (values) len = Math.max(len, 4);
+                        for (int r = 0; r < rowCount; r++) {
+                            if (!col.isNull(r) && !((Column.Bools) col).get(r)) {
+                                len = Math.max(len, 5);
+                                break;
+                            }
+                        }
+                        break;
+                    case _INT_:
+                        if (values) {
+                            len = Math.max(len, formatCell(c, lMin[c]).length());
+                            len = Math.max(len, formatCell(c, lMax[c]).length());
+                        }
+                        break;
+                    case _REAL_:
+                        if (real != null) {
+                            len = Math.max(len, real[c]);
+                            break;
+                        }
+                        Column.Doubles dcol = (Column.Doubles) col;
+                        for (int r = 0; r < rowCount; r++) {
+                            if (!col.isNull(r)) len = Math.max(len, format(c, dcol.get(r)).length());
+                        }
+                        break;
+                    default:
+                        len = Math.max(len, ((Column.Strings) col).maxLength);
+                        break;
+                }
+                if (len > dataWidth[c]) dataWidth[c] = len;
+            }
+            measured = true;
+            formattedWith = formatting();
+        }
+
+        private String formatCell(int c, long val) {
+            return exclude(cols[c]) ? String.valueOf(val) : format(val);
+        }
+
+        /**
+         * Formats the value of the given cell for display. Nulls render as an empty cell.
+         */
+        private String cell(int c, int r) {
+            Column col = columns[c];
+            if (col.isNull(r)) return "";
+            switch (type[c]) {
+                case _BOOL_:
+                    return String.valueOf(((Column.Bools) col).get(r));
+                case _INT_:
+                    return formatCell(c, ((Column.Longs) col).get(r));
+                case _REAL_:
+                    return format(c, ((Column.Doubles) col).get(r));
+                default:
+                    return ((Column.Strings) col).get(r);
+            }
+        }
+
+        /**
+         * Same as {@link #cell} but appends the value to the given buffer.
+         */
+        private void appendCell(StringBuilder sb, int c, int r) {
+            Column col = columns[c];
+            if (col.isNull(r)) return;
+            switch (type[c]) {
+                case _BOOL_:
+                    sb.append(((Column.Bools) col).get(r));
+                    break;
+                case _INT_:
+                    long val = ((Column.Longs) col).get(r);
+                    if (exclude(cols[c])) sb.append(val);
+                    else numbers.appendGrouped(sb, val);
+                    break;
+                case _REAL_:
+                    appendFormat(sb, c, ((Column.Doubles) col).get(r));
+                    break;
+                default:
+                    sb.append(((Column.Strings) col).get(r));
+                    break;
+            }
+        }
+
+        /**
+         * Absolute value of a numeric cell, used for the length of its bar.
+         */
+        private double magnitude(int c, int r) {
+            if (type[c] == _INT_) return Math.abs(((Column.Longs) columns[c]).get(r));
+            return Math.abs(((Column.Doubles) columns[c]).get(r));
+        }
+
+        /**
+         * Statistics of the column. The first call summarises all columns at once on the fork-join pool.
+         */
+        private ColumnStats summary(int c) {
+            if (summaryStats[c] == null) summaryStats = ColumnStats.of(columns, rowCount);
+            return summaryStats[c];
+        }
+
+        void calcStats() {
+            calcStats(false);
         }
 
-        private String nvl(String val, String def) {
-            if (val == null) return def;
-            return val;
+        /**
+         * Drops the column statistics, so the next {@link #calcStats} computes them again instead of only
+         * formatting them. For the benchmarks.
+         */
+        void resetStats() {
+            summaryStats = new ColumnStats[cols.length];
         }
 
-        private void calcStats() {
+        /**
+         * Formats the statistics of all columns. With {@code fit} they are shortened to the column widths
+         * already laid out, for a streamed result whose rows are printed.
+         */
+        private void calcStats(boolean fit) {
+            long start = System.nanoTime();
             String sval = null;
             int len;
-            stats.clear(); // needs optimization
-            for (int i = _MIN_; i <= _P_VARIANCE_; i++) {
+            stats.clear();
+            for (int i = _MIN_; i <= lastStat(); i++) {
                 List<String> r = new ArrayList<>();
                 stats.add(r);
                 for (int c = 0; c < cols.length; c++) {
-                    if (!exclude(cols[c])) {
+                    boolean counts = i == _NULLS_ || i == _DISTINCT_;     // shown for every column
+                    if (counts || !exclude(cols[c])) {
+                        if (summary(c).n == 0 && !counts) {    // only nulls, leave blank
+                            r.add("");
+                            continue;
+                        }
+                        double real = Double.NaN;       // the value of a real statistic, to fit it to its column
                         switch (i) {
                             case _MIN_:
                                 if (type[c] == _INT_)
-                                    sval = format((long) summaryStats[c].getMin());
+                                    sval = format((long) summary(c).min);
                                 else if (type[c] == _REAL_)
-                                    sval = format(summaryStats[c].getMin());
+                                    sval = format(c, real = summary(c).min);
                                 break;
                             case _MAX_:
                                 if (type[c] == _INT_)
-                                    sval = format((long) summaryStats[c].getMax());
+                                    sval = format((long) summary(c).max);
                                 else if (type[c] == _REAL_)
-                                    sval = format(summaryStats[c].getMax());
+                                    sval = format(c, real = summary(c).max);
                                 break;
                             case _MEAN_:
-                                sval = format(summaryStats[c].getMean());
+                                sval = format(c, real = summary(c).mean());
                                 break;
                             case _STDEV_:
-                                sval = format(summaryStats[c].getStandardDeviation());
+                                sval = format(c, real = summary(c).standardDeviation());
                                 break;
                             case _VARIANCE_:
-                                sval = format(summaryStats[c].getVariance());
+                                sval = format(c, real = summary(c).variance());
                                 break;
                             case _P_VARIANCE_:
-                                sval = format(summaryStats[c].getPopulationVariance());
+                                sval = format(c, real = summary(c).populationVariance());
+                                break;
+                            case _MEDIAN_:
+                                sval = format(c, real = summary(c).quantile(0.5));
+                                break;
+                            case _P90_:
+                                sval = format(c, real = summary(c).quantile(0.9));
+                                break;
+                            case _P99_:
+                                sval = format(c, real = summary(c).quantile(0.99));
+                                break;
+                            case _NULLS_:
+                                sval = format(summary(c).nulls);
+                                break;
+                            case _DISTINCT_:
+                                sval = format(summary(c).distinct());
+                                break;
+                            case _MEAN_CI_:     // half the width of the 95% confidence interval of the mean
+                                ColumnStats cs = summary(c);
+                                sval = cs.n < 2 ? "" : "+/-" + format(c, real = 1.96 * cs.standardDeviation() / Math.sqrt(cs.n)
+                                        * Math.sqrt(1 - fraction));
                                 break;
                         }
+                        if (fit && sval.length() > colWidth[c]) sval = fit(c, sval, real);
                         len = Math.max(Math.max(dataWidth[c], sval.length()), cols[c].length());
                         if (len > dataWidth[c]) dataWidth[c] = len;
                         r.add(sval);
@@ -485,52 +2525,353 @@ public class SQLEngine {
                     }
                 }
             }
+            phases[Metrics.STATS] += System.nanoTime() - start;
         }
 
-        private String format(long val) {
-            return String.format("%,d", val);
+        /**
+         * Shortens a statistic of a streamed result, whose column widths were set by the first batch, by
+         * dropping decimals until it fits its column. A column where it still doesn't fit is reported as
+         * overflowing, like one with rows which don't fit.
+         */
+        private String fit(int c, String sval, double real) {
+            String prefix = sval.startsWith("+/-") ? "+/-" : "";
+            if (!Double.isNaN(real)) {
+                for (int d = precision.getOrDefault(cols[c], decimals) - 1; d >= 0 && sval.length() > colWidth[c]; d--) {
+                    sval = prefix + format(real, d);
+                }
+            }
+            if (sval.length() > colWidth[c]) overflow[c] = true;
+            return sval;
         }
 
-        private String format(double val) {
-            String sval;
-            if (val == 0)
-                sval = "0";
-            else if (val < 0.00001 || val > 999_999_999_999d)
-                sval = String.format("%.4g", val);
-            else
-                sval = String.format("%,12.15f", val);
+        /**
+         * The last row of statistics, with the confidence interval of the mean for a sample.
+         */
+        private int lastStat() {
+            return fraction < 1 ? _MEAN_CI_ : _DISTINCT_;
+        }
 
-            return sval;
+        String format(long val) {
+            return numbers.grouped(val);
+        }
+
+        String format(double val) {
+            return format(val, DECIMALS);
+        }
+
+        /**
+         * Formats a real number with the decimals set for the column.
+         */
+        private String format(int c, double val) {
+            return format(val, precision.getOrDefault(cols[c], decimals));
+        }
+
+        /**
+         * Same as String.format("%,12." + decimals + "f") for most numbers, and "%.4g" for negative, very small
+         * or very large ones.
+         */
+        private String format(double val, int decimals) {
+            if (val == 0) return "0";
+            if (!Double.isFinite(val)) {            // never comes from a database, left to Formatter
+                return val < 0.00001 || val > 999_999_999_999d ? String.format("%.4g", val)
+                        : String.format("%,12." + decimals + "f", val);
+            }
+            if (val < 0.00001 || val > 999_999_999_999d) return numbers.general(val, 4);
+            return numbers.fixed(val, decimals);
+        }
+
+        private void appendFormat(StringBuilder sb, int c, double val) {
+            int d = precision.getOrDefault(cols[c], decimals);
+            if (val == 0) sb.append('0');
+            else if (!Double.isFinite(val)) sb.append(format(val, d));
+            else if (val < 0.00001 || val > 999_999_999_999d) numbers.appendGeneral(sb, val, 4);
+            else numbers.appendFixed(sb, val, d);
+        }
+
+        /**
+         * Makes the next render format the numbers again, after their precision was changed.
+         */
+        private void reformat() {
+            Arrays.fill(dataWidth, 0);
+            measured = false;
+            stats.clear();
+        }
+
+        /**
+         * Prints the result. When {@code page} is set only the rows which fit on the screen are printed, the
+         * rest of the result is already in the scrollback from the first time it was rendered.
+         */
+        void render(final boolean showStats, final boolean page) {
+            if (rowCount == 0) {
+                printf("%n(0 rows)%n%n");
+                return;
+            }
+
+            long start = System.nanoTime(), stats = phases[Metrics.STATS];
+            layout(showStats);
+            int shown = rowCount;
+            if (page) {
+                int chrome = 12 + (showStats || statsOn ? lastStat() + 1 : 0);   // header, scale, stats, footer and prompt
+                shown = Math.min(rowCount, Math.max(pageRows() - chrome, 5));
+            }
+            printHeader();
+            printRows(0, shown);
+            printSummary(showStats);
+            phases[Metrics.RENDER] = System.nanoTime() - start - (phases[Metrics.STATS] - stats);
+            printState(rowCount, shown < rowCount ? String.format("Showing first %d rows", shown) : null);
         }
 
-        private void render(final boolean showStats) {
-            if (rows.size() == 0) {
+        /**
+         * The visible column at the character offset of a row, or the nearest one.
+         */
+        private int columnAt(int offset) {
+            int k = Arrays.binarySearch(edges, offset);
+            if (k < 0) k = -k - 2;
+            return Math.max(0, Math.min(k, visible.length - 1));
+        }
+
+        /**
+         * The end of the visible columns needed to draw a row up to the character offset.
+         */
+        private int columnEnd(int offset) {
+            return Math.min(visible.length, columnAt(offset - 1) + 1);
+        }
+
+        /**
+         * Rows for the full screen viewer, formatted only when they are scrolled into view, and only the
+         * columns which fit in the terminal.
+         */
+        private ResultViewer.Source viewSource() {
+            layout(statsOn);
+            return new ResultViewer.Source() {
+                @Override
+                public int rowCount() {
+                    return rowCount;
+                }
+
+                @Override
+                public int start(int offset) {
+                    return edges[columnAt(offset)];
+                }
+
+                @Override
+                public int column(int offset) {
+                    return columnAt(offset) + 1;
+                }
+
+                @Override
+                public String header(int from, int to) {
+                    buildHeader(columnAt(from), columnEnd(to));
+                    return line.toString();
+                }
+
+                @Override
+                public String rule() {
+                    return hr;
+                }
+
+                @Override
+                public String row(int r, int from, int to) {
+                    buildRow(r, columnAt(from), columnEnd(to));
+                    return line.toString();
+                }
+            };
+        }
+
+        /**
+         * The rows of a result of the watch command. The layout signature covers everything besides the values
+         * which changes how a row is drawn: the column widths and the bar scales. The widths of the rows of the
+         * last run are reused, so only the real numbers of new or changed rows are formatted to measure them.
+         */
+        private WatchView.Snapshot watchSnapshot(Map<Long, int[]> widths) {
+            final long[] hashes = new long[rowCount];
+            for (int r = 0; r < rowCount; r++) {
+                hashes[r] = rowHash(r);
+            }
+            measure(hashes, widths);
+            layout(false);
+            final String signature = hr + Arrays.toString(visible) + Arrays.toString(colWidth)
+                    + Arrays.toString(interval) + Arrays.toString(minBarLen) + Arrays.toString(colScale);
+            return new WatchView.Snapshot() {
+                @Override
+                public int rowCount() {
+                    return rowCount;
+                }
+
+                @Override
+                public int start(int offset) {
+                    return edges[columnAt(offset)];
+                }
+
+                @Override
+                public int column(int offset) {
+                    return columnAt(offset) + 1;
+                }
+
+                @Override
+                public String header(int from, int to) {
+                    buildHeader(columnAt(from), columnEnd(to));
+                    return line.toString();
+                }
+
+                @Override
+                public String rule() {
+                    return hr;
+                }
+
+                @Override
+                public String row(int r, int from, int to) {
+                    buildRow(r, columnAt(from), columnEnd(to));
+                    return line.toString();
+                }
+
+                @Override
+                public long rowHash(int r) {
+                    return hashes[r];
+                }
+
+                @Override
+                public String layout() {
+                    return signature;
+                }
+
+                @Override
+                public void close() {
+                    QueryResult.this.close();
+                }
+            };
+        }
+
+        /**
+         * A 64 bit hash of the values of a row, read from the column store without formatting them.
+         */
+        long rowHash(int r) {
+            long h = 0;
+            for (int c = 0; c < cols.length; c++) {
+                Column col = columns[c];
+                long v;
+                if (col.isNull(r)) {
+                    v = 0x5bd1e995L;
+                } else {
+                    switch (type[c]) {
+                        case _BOOL_:
+                            v = ((Column.Bools) col).get(r) ? 1231 : 1237;
+                            break;
+                        case _INT_:
+                            v = ((Column.Longs) col).get(r);
+                            break;
+                        case _REAL_:
+                            v = Double.doubleToLongBits(((Column.Doubles) col).get(r));
+                            break;
+                        default:
+                            String s = ((Column.Strings) col).get(r);
+                            v = 0xcbf29ce484222325L;        // FNV-1a, String.hashCode has only 32 bits
+                            for (int i = 0; i < s.length(); i++) v = (v ^ s.charAt(i)) * 0x100000001b3L;
+                            break;
+                    }
+                }
+                h = mix(h * 31 + v);
+            }
+            return h;
+        }
+
+        private long mix(long h) {
+            h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+            h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            return h ^ (h >>> 33);
+        }
+
+        /**
+         * Marks the bar geometry of the given column, or of all columns when null, to be recalculated.
+         */
+        private void invalidate(String col) {
+            for (int c = 0; c < cols.length; c++) {
+                if (col == null || cols[c].equals(col)) dirty[c] = true;
+            }
+        }
+
+        /**
+         * Prints the result while it is still being read. The first batch of rows decides the column widths
+         * and the scale of the bars, later batches are read into the same column store and printed with that
+         * layout, so only one batch is held in memory at a time. Values which don't fit the layout are printed
+         * anyway and their columns are reported in the footer.
+         */
+        private void stream(ResultSet rs, int batch, final boolean showStats) throws SQLException {
+            if (rowCount == 0) {
                 printf("%n(0 rows)%n%n");
                 return;
             }
 
-            if (showStats || statsOn) calcStats();  // needs optimization
+            long start = System.nanoTime(), before = phases[Metrics.FETCH] + phases[Metrics.BUILD] + phases[Metrics.STATS];
+            layout(false);
+            printHeader();
+
+            ColumnStats[] running = null;
+            long total = 0;
+            while (true) {
+                printRows(0, rowCount);
+                flush();
+                total += rowCount;
+                long t = System.nanoTime();
+                ColumnStats[] batchStats = ColumnStats.of(columns, rowCount);
+                phases[Metrics.STATS] += System.nanoTime() - t;
+                if (running == null) running = batchStats;
+                else for (int c = 0; c < cols.length; c++) running[c].merge(batchStats[c]);
+                if (exhausted) break;
+                clear();
+                if (read(rs, batch) == 0) break;
+            }
+
+            summaryStats = running;
+            if (showStats || statsOn) calcStats(true);
+            printSummary(showStats);
+            long spent = phases[Metrics.FETCH] + phases[Metrics.BUILD] + phases[Metrics.STATS] - before;
+            phases[Metrics.RENDER] = System.nanoTime() - start - spent;
+
+            StringBuilder note = new StringBuilder();
+            note.append("Streamed, layout from first ").append(Math.min(batch, total)).append(" rows");
+            StringJoiner over = new StringJoiner(", ", "Overflow: [", "]");
+            over.setEmptyValue("");
+            for (int c = 0; c < cols.length; c++) {
+                if (overflow[c] && !hidden.contains(cols[c])) over.add(cols[c]);
+            }
+            if (over.length() > 0) note.append(" | ").append(over);
+            printState(total, note.toString());
+        }
+
+        /**
+         * Works out the width of each column, the bar geometry and the horizontal rule. The measured widths
+         * and the statistics are kept between renders and the bar geometry is only recalculated for the
+         * columns marked dirty, so a scale, hide or stats command doesn't walk the whole result again.
+         */
+        private void layout(final boolean showStats) {
+            measure();
+            if ((showStats || statsOn) && stats.isEmpty()) calcStats();
 
             int totalWidth = cols.length + 1 - hidden.size();   // table width
 
-            // find column widths
+            // find column widths. Bars grow with the number of rows, up to maxbar characters at scale 1.0
+            int steps = Math.min(rowCount, maxBar);
             for (int c = 0; c < cols.length; c++) {
-                int maxBarLen = 0;
-                if (!exclude(cols[c])) {
-                    float _scale_ = scale.getOrDefault(cols[c], 1f);
-                    if (type[c] == _INT_) {
-                        interval[c] = (1.0 * iMax[c] - iMin[c]) / rows.size();
-                        minBarLen[c] = (int) Math.round(iMin[c] / interval[c] * _scale_);
-                        maxBarLen = (int) Math.round(iMax[c] / interval[c] * _scale_);
-                    } else if (type[c] == _REAL_) {
-                        interval[c] = (rMax[c] - rMin[c]) / rows.size();
-                        minBarLen[c] = (int) Math.round(rMin[c] / interval[c] * _scale_);
-                        maxBarLen = (int) Math.round(rMax[c] / interval[c] * _scale_);
+                if (dirty[c]) {
+                    maxBarLen[c] = 0;
+                    if (!exclude(cols[c]) && columns[c].nullCount < rowCount) {
+                        float _scale_ = scale.getOrDefault(cols[c], 1f);
+                        if (type[c] == _INT_) {
+                            interval[c] = (1.0 * iMax[c] - iMin[c]) / steps;
+                            minBarLen[c] = (int) Math.round(iMin[c] / interval[c] * _scale_);
+                            maxBarLen[c] = (int) Math.round(iMax[c] / interval[c] * _scale_);
+                        } else if (type[c] == _REAL_) {
+                            interval[c] = (rMax[c] - rMin[c]) / steps;
+                            minBarLen[c] = (int) Math.round(rMin[c] / interval[c] * _scale_);
+                            maxBarLen[c] = (int) Math.round(rMax[c] / interval[c] * _scale_);
+                        }
+                        if (minBarLen[c] > _scale_) maxBarLen[c] = maxBarLen[c] - (minBarLen[c] - (int) _scale_);
+//                        printf("%s | Interval:%f | Wd:%d | MinBL:%d | MaxBL:%d%n", cols[c], interval[c], colWidth[c], minBarLen[c], maxBarLen[c]);
                     }
-                    if (minBarLen[c] > _scale_) maxBarLen = maxBarLen - (minBarLen[c] - (int) _scale_);
-//                    printf("%s | Interval:%f | Wd:%d | MinBL:%d | MaxBL:%d%n", cols[c], interval[c], colWidth[c], minBarLen[c], maxBarLen);
+                    dirty[c] = false;
                 }
-                colWidth[c] = Math.max(dataWidth[c], maxBarLen);
+                colWidth[c] = Math.max(dataWidth[c], maxBarLen[c]);
                 if (!hidden.contains(cols[c])) totalWidth += colWidth[c];
             }
 
@@ -539,125 +2880,248 @@ public class SQLEngine {
             for (int i = 0; i < totalWidth; i++) {
                 sb.append("-");
             }
-            String hr = sb.toString();
+            hr = sb.toString();
 
-            // print header
-            println();
-            println(hr);
-            print("|");
+            // everything the row renderer needs per cell
+            int n = 0, maxWidth = 0;
+            visible = new int[cols.length];
+            bars = new boolean[cols.length];
+            colScale = new float[cols.length];
             for (int c = 0; c < cols.length; c++) {
-                if (hidden.contains(cols[c])) continue;
-                printf(alignLeft.replace("[N]", String.valueOf(colWidth[c])), cols[c]);
-                print("|");
+                if (!hidden.contains(cols[c])) visible[n++] = c;
+                bars[c] = (type[c] == _INT_ || type[c] == _REAL_) && !exclude(cols[c]);
+                colScale[c] = scale.getOrDefault(cols[c], 1f);
+                maxWidth = Math.max(maxWidth, colWidth[c]);
+            }
+            visible = Arrays.copyOf(visible, n);
+            edges = new int[n + 1];
+            for (int k = 0; k < n; k++) {
+                edges[k + 1] = edges[k] + colWidth[visible[k]] + 1;
+            }
+            if (blanks.length() < maxWidth) {
+                sb.setLength(0);
+                for (int i = 0; i < maxWidth; i++) {
+                    sb.append(' ');
+                }
+                blanks = sb.toString();
             }
+            pending = 0;
+        }
+
+        private void printHeader() {
             println();
             println(hr);
+            buildHeader();
+            emit();
+            println(hr);
+        }
 
-            // print data
-            for (int r = 0; r < rows.size(); r++) {
-                List<String> row = rows.get(r);
-                List<Object> dt = data.get(r);
-                print("|");
-                int color = 0;
-                for (int c = 0; c < row.size(); c++) {
-                    if (hidden.contains(cols[c])) continue;
-                    if ((type[c] == _INT_ || type[c] == _REAL_) && !exclude(cols[c])) {
-                        int barLen = 0;
-                        float _scale_ = scale.getOrDefault(cols[c], 1f);
-
-                        if (type[c] == _INT_)
-                            barLen = (int) Math.round(Math.abs((Long) dt.get(c)) / interval[c] * _scale_);
-                        if (type[c] == _REAL_)
-                            barLen = (int) Math.round(Math.abs((Double) dt.get(c)) / interval[c] * _scale_);
-
-                        if (minBarLen[c] > _scale_) barLen = barLen - (minBarLen[c] - (int) _scale_);
-
-                        int valLen = row.get(c).length();
-                        int remLen = colWidth[c] - Math.max(barLen, valLen);
+        private void buildHeader() {
+            buildHeader(0, visible.length);
+        }
 
-                        char[] chars = row.get(c).toCharArray();
+        /**
+         * Builds the header of the visible columns from first up to end, starting with the '|' at
+         * edges[first].
+         */
+        private void buildHeader(int first, int end) {
+            line.setLength(0);
+            line.append('|');
+            for (int k = first; k < end; k++) {
+                int c = visible[k];
+                line.append(cols[c]);
+                pad(colWidth[c] - cols[c].length());
+                line.append('|');
+            }
+        }
 
-                        AttributedStringBuilder asb = new AttributedStringBuilder();
-                        color = getNextBarColor(color);
-                        if (barLen > 0) asb.style(AttributedStyle.DEFAULT.background(color));
+        private void printRows(int from, int to) {
+            for (int r = from; r < to; r++) {
+                printRow(r);
+            }
+        }
 
-                        for (int i = 0; i < chars.length; i++) {
-                            asb.append(chars[i]);
-                            barLen--;
-                            if (barLen == 0) asb.style(AttributedStyle.DEFAULT);
-                        }
+        private void printRow(int r) {
+            buildRow(r);
+            emit();
+        }
 
-                        if (barLen > 0) {
-                            for (int i = 0; i < barLen; i++) {
-                                asb.append(" ");
-                            }
-                            asb.style(AttributedStyle.DEFAULT);
-                        }
+        private void buildRow(int r) {
+            buildRow(r, 0, visible.length);
+        }
 
-                        for (int i = 0; i < remLen; i++) {
-                            asb.append(" ");
-                        }
+        /**
+         * Builds the visible columns from first up to end of the row in the reused line buffer. Bars are drawn
+         * by switching the background colour on before the value and off again after the bar length.
+         */
+        private void buildRow(int r, int first, int end) {
+            line.setLength(0);
+            line.append('|');
+            int color = 0;
+            for (int k = 0; k < first; k++) {       // bar colours go round from the first column
+                if (bars[visible[k]]) color = getNextBarColor(color);
+            }
+            for (int k = first; k < end; k++) {
+                int c = visible[k];
+                cellBuf.setLength(0);
+                appendCell(cellBuf, c, r);
+                int valLen = cellBuf.length();
+                if (valLen > colWidth[c]) overflow[c] = true;
+                if (bars[c]) {
+                    int barLen = 0;
+                    float _scale_ = colScale[c];
+
+                    if (!columns[c].isNull(r))
+                        barLen = (int) Math.round(magnitude(c, r) / interval[c] * _scale_);
+
+                    if (barLen > 0 && minBarLen[c] > _scale_) barLen = barLen - (minBarLen[c] - (int) _scale_);
+                    if (barLen > colWidth[c]) {
+                        barLen = colWidth[c];
+                        overflow[c] = true;
+                    }
 
-                        print(asb.toAnsi());
+                    color = getNextBarColor(color);
+                    if (barLen <= 0) {
+                        line.append(cellBuf);
+                    } else if (barLen <= valLen) {
+                        line.append(barStyle[color]).append(cellBuf, 0, barLen).append(barReset).append(cellBuf, barLen, valLen);
                     } else {
-                        printf(alignLeft.replace("[N]", String.valueOf(colWidth[c])), row.get(c));
+                        line.append(barStyle[color]).append(cellBuf);
+                        pad(barLen - valLen);
+                        line.append(barReset);
                     }
-                    print("|");
+                    pad(colWidth[c] - Math.max(barLen, valLen));
+                } else {
+                    line.append(cellBuf);
+                    pad(colWidth[c] - valLen);
                 }
-                println();
+                line.append('|');
             }
+        }
+
+        private void printSummary(final boolean showStats) {
             println(hr);
 
             // print scale
-            print("|");
-            for (int c = 0; c < cols.length; c++) {
-                if (!hidden.contains(cols[c])) {
-                    printf(alignLeft.replace("[N]", String.valueOf(colWidth[c])), exclude(cols[c]) ? " " : scale.get(cols[c]));
-                    print("|");
-                }
+            line.setLength(0);
+            line.append('|');
+            for (int c : visible) {
+                String val = exclude(cols[c]) ? " " : String.valueOf(scale.get(cols[c]));
+                line.append(val);
+                pad(colWidth[c] - val.length());
+                line.append('|');
             }
-            println(" Scale");
+            line.append(" Scale");
+            emit();
             println(hr);
 
             if (showStats || statsOn) {
-                for (int i = _MIN_; i <= _P_VARIANCE_; i++) {
-                    print("|");
+                for (int k = _MIN_; k <= lastStat(); k++) {
+                    // for a sample, the confidence interval of the mean is shown right after the mean
+                    int i = fraction < 1 && k > _MEAN_ ? (k == _MEAN_ + 1 ? _MEAN_CI_ : k - 1) : k;
+                    line.setLength(0);
+                    line.append('|');
                     List<String> r = stats.get(i);
-                    for (int c = 0; c < cols.length; c++) {
-                        if (!hidden.contains(cols[c])) {
-                            printf(alignLeft.replace("[N]", String.valueOf(colWidth[c])), exclude(cols[c]) ? " " : r.get(c));
-                            print("|");
-                        }
+                    for (int c : visible) {
+                        String val = r.get(c) == null ? " " : r.get(c);
+                        line.append(val);
+                        pad(colWidth[c] - val.length());
+                        line.append('|');
                     }
+                    line.append(fraction < 1 ? " ~" : " ");       // estimated from a sample
                     switch (i) {
                         case _MIN_:
-                            println(" Min.");
+                            line.append("Min.");
                             break;
                         case _MAX_:
-                            println(" Max.");
+                            line.append("Max.");
                             break;
                         case _MEAN_:
-                            println(" Mean");
+                            line.append("Mean");
                             break;
                         case _STDEV_:
-                            println(" StDev.");
+                            line.append("StDev.");
                             break;
                         case _VARIANCE_:
-                            println(" Var.");
+                            line.append("Var.");
                             break;
                         case _P_VARIANCE_:
-                            println(" P.Var.");
+                            line.append("P.Var.");
+                            break;
+                        case _MEDIAN_:
+                            line.append("Median");
+                            break;
+                        case _P90_:
+                            line.append("P90");
+                            break;
+                        case _P99_:
+                            line.append("P99");
+                            break;
+                        case _NULLS_:
+                            line.append("Nulls");
+                            break;
+                        case _DISTINCT_:
+                            line.append("Distinct");
+                            break;
+                        case _MEAN_CI_:
+                            line.append("Mean 95% CI");
                             break;
                     }
+                    emit();
                 }
                 println(hr);
             }
+        }
+
+        private void pad(int n) {
+            while (n > 0) {
+                int k = Math.min(n, blanks.length());
+                line.append(blanks, 0, k);
+                n -= k;
+            }
+        }
+
+        /**
+         * Writes the line buffer as one row of output, flushing the terminal once per screenful.
+         */
+        private void emit() {
+            println(line.toString());
+            if (++pending >= pageRows()) {
+                flush();
+                pending = 0;
+            }
+        }
 
+        private void printState(long rows, String note) {
             // print program state
             AttributedStringBuilder asb = new AttributedStringBuilder();
 //            if (showStats) asb.append("       ");
             asb.style(AttributedStyle.BOLD.background(AttributedStyle.BRIGHT).foreground(AttributedStyle.YELLOW));
-            asb.append(String.format(rows.size() == 1 ? "(%d row)%n" : "(%d rows)", rows.size()));
+            asb.append(String.format(rows == 1 ? "(%d row)%n" : "(%d rows)", rows));
+            if (note != null) {
+                asb.append(" | ");
+                asb.append(note);
+            }
+            if (maxRows > 0 && rows >= maxRows) {
+                asb.append(" | ");
+                asb.append("Max Rows Reached");
+            }
+            if (fromCache) {
+                asb.append(" | ");
+                asb.append("Cached " + ResultCache.age(System.currentTimeMillis() - readAt) + " ago");
+            }
+            if (spilled > 0) {
+                asb.append(" | ");
+                asb.append(String.format("Spilled %.1f MB to disk", spilled / 1048576d));
+            }
+            if (sampling != null) {
+                asb.append(" | ");
+                asb.append(sampling);
+                if (estimateTotal) {        // the row count is binomial, with a 95% confidence interval
+                    asb.append(String.format(", est. %,.0f +/- %,.0f rows in all", rows / fraction,
+                            1.96 * Math.sqrt(rows * (1 - fraction)) / fraction));
+                }
+            }
             if (scaleLocked) {
                 asb.append(" | ");
                 asb.append("Scale Locked");
@@ -681,9 +3145,27 @@ public class SQLEngine {
                 }
             }
             asb.style(AttributedStyle.DEFAULT);
-            asb.append("%n%n");
-            printf(asb.toAnsi());
+            asb.append(NL).append(timing()).append(NL).append(NL);
+            print(asb.toAnsi());        // not printf, column names may contain %
             log.flush();
         }
+
+        /**
+         * The time spent in each phase of the last run, leaving out the phases which didn't happen, like
+         * execute for a cached result.
+         */
+        private String timing() {
+            StringJoiner sj = new StringJoiner(" | ");
+            for (int p = 0; p < Metrics.TOTAL; p++) {
+                if (phases[p] == 0) continue;
+                String part = Metrics.PHASES[p] + " " + Metrics.duration(phases[p]);
+                if (p == Metrics.FETCH) {
+                    double secs = (phases[Metrics.FIRST_ROW] + phases[Metrics.FETCH]) / 1e9;
+                    part += String.format(" (%,.0f rows/s, %.1f MB/s)", rowsRead / secs, bytesFetched / secs / 1048576);
+                }
+                sj.add(part);
+            }
+            return sj.toString();
+        }
     }
 }
\ No newline at end of file
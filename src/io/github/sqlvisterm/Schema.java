@@ -0,0 +1,97 @@
+package io.github.sqlvisterm;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Names of the tables and columns of a database, read once from {@link DatabaseMetaData} and indexed for tab
+ * completion. Tables can be found by their name or by schema and name, columns by their name or through their
+ * table. All lookups ignore case.
+ */
+final class Schema {
+    private static final Set<String> SYSTEM = new HashSet<>(Arrays.asList("information_schema", "pg_catalog"));
+
+    final PrefixTrie<String> tables;        // by name and by schema.name, values are quoted where needed
+    final PrefixTrie<String> columns;
+    private final Map<String, List<String>> columnsByTable = new HashMap<>();
+    private final String quote;
+    final int tableCount, columnCount;
+    final long loadMillis;
+
+    Schema(Connection conn) throws SQLException {
+        long start = System.currentTimeMillis();
+        DatabaseMetaData md = conn.getMetaData();
+        String q = md.getIdentifierQuoteString();
+        quote = q == null || q.trim().isEmpty() ? "\"" : q.trim();
+        Map<String, String> tableNames = new HashMap<>();
+        List<String[]> tableList = new ArrayList<>();
+        try (ResultSet rs = md.getTables(null, null, "%", new String[]{"TABLE", "VIEW"})) {
+            while (rs.next()) {
+                String schema = rs.getString("TABLE_SCHEM"), name = rs.getString("TABLE_NAME");
+                if (schema != null && SYSTEM.contains(schema.toLowerCase())) continue;
+                tableNames.put(name, quote(name));
+                if (schema != null) tableNames.put(schema + '.' + name, quote(schema) + '.' + quote(name));
+                tableList.add(new String[]{schema, name});
+            }
+        }
+        Map<String, String> columnNames = new HashMap<>();
+        int nc = 0;
+        try (ResultSet rs = md.getColumns(null, null, "%", "%")) {    // one round trip for all tables
+            nc = readColumns(rs, columnNames);
+        } catch (SQLException e) {      // some drivers fail on all tables when one view is broken
+            columnNames.clear();
+            columnsByTable.clear();
+            for (String[] t : tableList) {
+                try (ResultSet rs = md.getColumns(null, t[0], t[1], "%")) {
+                    nc += readColumns(rs, columnNames);
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+        tables = new PrefixTrie<>(tableNames);
+        columns = new PrefixTrie<>(columnNames);
+        tableCount = tableList.size();
+        columnCount = nc;
+        loadMillis = System.currentTimeMillis() - start;
+    }
+
+    private int readColumns(ResultSet rs, Map<String, String> columnNames) throws SQLException {
+        int n = 0;
+        while (rs.next()) {
+            String schema = rs.getString("TABLE_SCHEM"), table = rs.getString("TABLE_NAME");
+            if (schema != null && SYSTEM.contains(schema.toLowerCase())) continue;
+            String name = rs.getString("COLUMN_NAME");
+            columnNames.putIfAbsent(name, quote(name));
+            columnsByTable.computeIfAbsent(table.toLowerCase(), k -> new ArrayList<>()).add(name);
+            if (schema != null) {
+                columnsByTable.computeIfAbsent((schema + '.' + table).toLowerCase(), k -> new ArrayList<>()).add(name);
+            }
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Quotes names which aren't plain identifiers, like "Order Details".
+     */
+    String quote(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            if (!(Character.isLetterOrDigit(ch) || ch == '_' || ch == '$') || i == 0 && Character.isDigit(ch)) {
+                return quote + name + quote;
+            }
+        }
+        return name;
+    }
+
+    /**
+     * The columns of a table given by its name or by schema and name, or an empty list for an unknown table.
+     * The names are not quoted.
+     */
+    List<String> columnsOf(String table) {
+        return columnsByTable.getOrDefault(table.toLowerCase(), Collections.emptyList());
+    }
+}
@@ -0,0 +1,129 @@
+package io.github.sqlvisterm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Temporary file for column chunks moved off the heap. The file is mapped in large segments and chunks
+ * are copied into them one after the other. Columns read them back through buffer views of the mapping,
+ * so a spilled chunk costs a few objects on the heap no matter how big it is.
+ */
+class SpillFile implements Closeable {
+    private static final int SEGMENT = 64 << 20;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private MappedByteBuffer segment;
+    private long mapped;    // end of the mapped part of the file
+    private int used;       // bytes used in the current segment
+    private long bytes;     // bytes written
+
+    SpillFile() throws IOException {
+        file = File.createTempFile("sqlvisterm", ".spill");
+        file.deleteOnExit();
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    private ByteBuffer allocate(int len) throws IOException {
+        ByteBuffer buf;
+        if (len > SEGMENT) {                                // too big for a segment, map it by itself
+            buf = channel.map(FileChannel.MapMode.READ_WRITE, mapped, len);
+            mapped += len;
+        } else {
+            if (segment == null || used + len > SEGMENT) {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, mapped, SEGMENT);
+                mapped += SEGMENT;
+                used = 0;
+            }
+            buf = segment.duplicate();
+            buf.position(used);
+            buf.limit(used + len);
+            buf = buf.slice();
+            used += (len + 7) & ~7;
+        }
+        bytes += len;
+        return buf.order(ByteOrder.nativeOrder());
+    }
+
+    LongBuffer write(long[] chunk) throws IOException {
+        LongBuffer buf = allocate(chunk.length * 8).asLongBuffer();
+        buf.put(chunk);
+        return buf;
+    }
+
+    DoubleBuffer write(double[] chunk) throws IOException {
+        DoubleBuffer buf = allocate(chunk.length * 8).asDoubleBuffer();
+        buf.put(chunk);
+        return buf;
+    }
+
+    IntBuffer write(int[] chunk) throws IOException {
+        IntBuffer buf = allocate(chunk.length * 4).asIntBuffer();
+        buf.put(chunk);
+        return buf;
+    }
+
+    /**
+     * Writes the strings as a table of {@code count + 1} offsets followed by their UTF-8 bytes.
+     */
+    ByteBuffer write(String[] chunk, int count) throws IOException {
+        byte[][] utf8 = new byte[count][];
+        int len = 4 * (count + 1);
+        for (int i = 0; i < count; i++) {
+            utf8[i] = chunk[i].getBytes(StandardCharsets.UTF_8);
+            len += utf8[i].length;
+        }
+        ByteBuffer buf = allocate(len);
+        int offset = 4 * (count + 1);
+        for (int i = 0; i < count; i++) {
+            buf.putInt(4 * i, offset);
+            offset += utf8[i].length;
+        }
+        buf.putInt(4 * count, offset);
+        buf.position(4 * (count + 1));
+        for (int i = 0; i < count; i++) {
+            buf.put(utf8[i]);
+        }
+        return buf;
+    }
+
+    static String read(ByteBuffer strings, int i) {
+        int start = strings.getInt(4 * i);
+        byte[] utf8 = new byte[strings.getInt(4 * (i + 1)) - start];
+        ByteBuffer src = strings.duplicate();
+        src.position(start);
+        src.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Closes and deletes the file. The mappings are released when their buffers are garbage collected.
+     */
+    @Override
+    public void close() {
+        segment = null;
+        try {
+            channel.close();
+            raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (!file.delete()) file.deleteOnExit();
+    }
+}
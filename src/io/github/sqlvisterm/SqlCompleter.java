@@ -0,0 +1,194 @@
+package io.github.sqlvisterm;
+
+import org.jline.reader.Candidate;
+import org.jline.reader.Completer;
+import org.jline.reader.LineReader;
+import org.jline.reader.ParsedLine;
+
+import java.util.*;
+
+/**
+ * Tab completion for SQL and the commands of the program. Keywords, table and column names come from the
+ * {@link Schema} of the current connection, which is looked up in prefix tries, so completing stays fast on
+ * databases with tens of thousands of tables. After FROM or JOIN only tables are suggested, and after a table
+ * name or alias followed by a dot only the columns of that table.
+ */
+class SqlCompleter implements Completer {
+    private static final int LIMIT = 200;       // candidates per group
+
+    private static final String[] KEYWORDS = {"ALL", "ALTER", "AND", "AS", "ASC", "AVG", "BETWEEN", "BY", "CASE",
+            "CAST", "COALESCE", "COUNT", "CREATE", "CROSS", "DELETE", "DESC", "DISTINCT", "DROP", "ELSE", "END",
+            "EXCEPT", "EXISTS", "FROM", "FULL", "GROUP", "HAVING", "IN", "INNER", "INSERT", "INTERSECT", "INTO", "IS",
+            "JOIN", "LEFT", "LIKE", "LIMIT", "MAX", "MIN", "NOT", "NULL", "OFFSET", "ON", "OR", "ORDER", "OUTER",
+            "OVER", "PARTITION", "RIGHT", "SELECT", "SET", "SUM", "TABLE", "THEN", "UNION", "UPDATE", "VALUES", "VIEW",
+            "WHEN", "WHERE", "WITH"};
+
+    private static final Map<String, String[]> COMMANDS = new LinkedHashMap<>();
+
+    static {
+        COMMANDS.put("scale", new String[0]);
+        COMMANDS.put("precision", new String[]{"off"});
+        COMMANDS.put("hide", new String[0]);
+        COMMANDS.put("unhide", new String[]{"all"});
+        COMMANDS.put("lock", new String[]{"scale", "hidden"});
+        COMMANDS.put("unlock", new String[]{"scale", "hidden"});
+        COMMANDS.put("stats", new String[]{"on", "off"});
+        COMMANDS.put("stream", new String[]{"on", "off"});
+        COMMANDS.put("sample", new String[]{"off"});
+        COMMANDS.put("limit", new String[]{"off", "fetchsize", "maxrows", "cursor", "readonly", "autocommit"});
+        COMMANDS.put("view", new String[0]);
+        COMMANDS.put("cache", new String[]{"list", "clear", "pin", "unpin", "size", "disk", "ttl"});
+        COMMANDS.put("refresh", new String[]{"schema"});
+        COMMANDS.put("export", new String[]{"csv", "tsv", "json", "bin"});
+        COMMANDS.put("hist", new String[0]);
+        COMMANDS.put("run", new String[0]);
+        COMMANDS.put("bind", new String[]{"clear"});
+        COMMANDS.put("watch", new String[0]);
+        COMMANDS.put("connect", new String[0]);
+        COMMANDS.put("startup", new String[0]);
+        COMMANDS.put("metrics", new String[]{"clear"});
+        COMMANDS.put("log", new String[]{"off", "sql", "timing", "full", "color"});
+        COMMANDS.put("help", new String[0]);
+        COMMANDS.put("quit", new String[0]);
+        COMMANDS.put("exit", new String[0]);
+    }
+
+    private static final PrefixTrie<String> keywords;
+    private static final Set<String> keywordSet = new HashSet<>(Arrays.asList(KEYWORDS));
+
+    static {
+        Map<String, String> map = new HashMap<>();
+        for (String k : KEYWORDS) map.put(k, k);
+        keywords = new PrefixTrie<>(map);
+    }
+
+    private final SQLEngine se;
+
+    SqlCompleter(SQLEngine se) {
+        this.se = se;
+    }
+
+    @Override
+    public void complete(LineReader reader, ParsedLine line, List<Candidate> candidates) {
+        String word = line.word().substring(0, line.wordCursor());
+        List<String> words = line.words();
+        if (line.wordIndex() == 0) {
+            for (String c : COMMANDS.keySet()) {
+                if (c.startsWith(word.toLowerCase())) candidates.add(new Candidate(c, c, "Commands", null, null, null, true));
+            }
+            addKeywords("", word, candidates);
+            return;
+        }
+        String command = words.get(0).toLowerCase();
+        if (COMMANDS.containsKey(command)) {
+            completeCommand(command, word, candidates);
+            return;
+        }
+
+        int cut = word.length();                // complete the name after the last operator or bracket
+        while (cut > 0 && "(),=<>+-*/|%".indexOf(word.charAt(cut - 1)) < 0) cut--;
+        String head = word.substring(0, cut), name = word.substring(cut);
+        Schema schema = se.schema();
+        Map<String, String> aliases = aliases(words);
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0) {
+            if (schema == null) return;
+            String qualifier = name.substring(0, dot), prefix = name.substring(dot + 1).toLowerCase();
+            String table = aliases.getOrDefault(qualifier.toLowerCase(), qualifier);
+            for (String col : schema.columnsOf(table)) {
+                if (col.toLowerCase().startsWith(prefix)) {
+                    String value = schema.quote(col);
+                    candidates.add(new Candidate(head + qualifier + '.' + value, value, "Columns", null, null, null, true));
+                }
+            }
+            List<String> qualified = new ArrayList<>();     // schema.table
+            schema.tables.find(name, LIMIT, qualified);
+            for (String t : qualified) candidates.add(new Candidate(head + t, t, "Tables", null, null, null, true));
+            return;
+        }
+
+        String prev = line.wordIndex() > 0 ? words.get(line.wordIndex() - 1).toLowerCase() : "";
+        boolean tablesOnly = prev.equals("from") || prev.equals("join") || prev.equals("into") || prev.equals("update")
+                || prev.equals("table");
+        if (schema != null) {
+            List<String> found = new ArrayList<>();
+            schema.tables.find(name, LIMIT, found);
+            for (String t : found) candidates.add(new Candidate(head + t, t, "Tables", null, null, null, true));
+            if (tablesOnly) return;
+            Set<String> tables = new LinkedHashSet<>(aliases.values());
+            if (!tables.isEmpty()) {            // the columns of the tables in the query
+                Set<String> seen = new HashSet<>();
+                for (String t : tables) {
+                    for (String col : schema.columnsOf(t)) {
+                        if (col.toLowerCase().startsWith(name.toLowerCase()) && seen.add(col.toLowerCase())) {
+                            String value = schema.quote(col);
+                            candidates.add(new Candidate(head + value, value, "Columns", null, null, null, true));
+                        }
+                    }
+                }
+            } else {
+                List<String> cols = new ArrayList<>();
+                schema.columns.find(name, LIMIT, cols);
+                for (String col : cols) candidates.add(new Candidate(head + col, col, "Columns", null, null, null, true));
+            }
+        }
+        if (!tablesOnly) addKeywords(head, name, candidates);
+    }
+
+    private void completeCommand(String command, String word, List<Candidate> candidates) {
+        List<String> args = new ArrayList<>(Arrays.asList(COMMANDS.get(command)));
+        if (command.equals("connect")) args.addAll(se.profileNames());
+        if (command.equals("scale") || command.equals("precision") || command.equals("hist") || command.equals("hide") || command.equals("unhide")) {
+            args.addAll(se.resultColumns());
+        }
+        for (String a : args) {
+            if (a.toLowerCase().startsWith(word.toLowerCase())) candidates.add(new Candidate(a, a, null, null, null, null, true));
+        }
+    }
+
+    /**
+     * Adds the keywords in the case the user is typing them in.
+     */
+    private static void addKeywords(String head, String prefix, List<Candidate> candidates) {
+        if (prefix.isEmpty()) return;
+        boolean lower = Character.isLowerCase(prefix.charAt(0));
+        List<String> found = new ArrayList<>();
+        keywords.find(prefix, LIMIT, found);
+        for (String k : found) {
+            String value = lower ? k.toLowerCase() : k;
+            candidates.add(new Candidate(head + value, value, "Keywords", null, null, null, true));
+        }
+    }
+
+    /**
+     * Maps the aliases and names of the tables after FROM and JOIN to the table names, as in
+     * "from orders o, customers as c join employees".
+     */
+    private static Map<String, String> aliases(List<String> words) {
+        Map<String, String> aliases = new HashMap<>();
+        for (int i = 0; i < words.size(); i++) {
+            String w = words.get(i).toLowerCase();
+            if (!w.equals("from") && !w.equals("join")) continue;
+            int j = i + 1;
+            while (j < words.size()) {
+                String table = words.get(j).replace(",", "");
+                if (table.isEmpty() || table.startsWith("(") || keywordSet.contains(table.toUpperCase())) break;
+                aliases.put(table.toLowerCase(), table);
+                boolean more = words.get(j++).endsWith(",");
+                if (!more && j < words.size() && words.get(j).equalsIgnoreCase("as")) j++;
+                if (!more && j < words.size()) {
+                    String alias = words.get(j).replace(",", "");
+                    if (!alias.isEmpty() && !keywordSet.contains(alias.toUpperCase())) {
+                        aliases.put(alias.toLowerCase(), table);
+                        more = words.get(j++).endsWith(",");
+                    }
+                }
+                if (!more) {
+                    if (j < words.size() && words.get(j).equals(",")) j++;
+                    else break;
+                }
+            }
+        }
+        return aliases;
+    }
+}
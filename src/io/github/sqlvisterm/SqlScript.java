@@ -0,0 +1,201 @@
+package io.github.sqlvisterm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits SQL text into statements at the semicolons which end them. Semicolons in quoted strings and names,
+ * comments, dollar quoted bodies ($$ ... $$ or $tag$ ... $tag$) and between BEGIN and END of a trigger don't
+ * end a statement. Each statement is sorted by its first keyword into one which returns rows, one which only
+ * changes data or the schema and can go into a batch, and one which has to run on its own.
+ */
+class SqlScript {
+    static final int QUERY = 0, UPDATE = 1, CONTROL = 2;
+
+    final String sql;
+    final int line;         // line of the text the statement starts on, from 1
+    final int kind;
+
+    private SqlScript(String sql, int line, int kind) {
+        this.sql = sql;
+        this.line = line;
+        this.kind = kind;
+    }
+
+    /**
+     * The statements of the text without their semicolons. Statements which are only comments are left out.
+     */
+    static List<SqlScript> split(String text) {
+        List<SqlScript> statements = new ArrayList<>();
+        int n = text.length(), start = 0, line = 1, startLine = 1, depth = 0;
+        boolean trigger = false, words = true;      // words: still reading the first keywords of the statement
+        StringBuilder head = new StringBuilder();
+        int i = 0;
+        while (i < n) {
+            char ch = text.charAt(i);
+            if (ch == '\n') {
+                line++;
+                i++;
+            } else if (ch == '\'' || ch == '"' || ch == '`') {
+                int end = closing(text, i + 1, ch);
+                line += lines(text, i, end);
+                i = end;
+            } else if (ch == '[') {         // [name] in SQLite and SQL Server
+                int end = text.indexOf(']', i + 1);
+                end = end < 0 ? n : end + 1;
+                line += lines(text, i, end);
+                i = end;
+            } else if (ch == '-' && i + 1 < n && text.charAt(i + 1) == '-') {
+                int end = text.indexOf('\n', i);
+                i = end < 0 ? n : end;
+            } else if (ch == '/' && i + 1 < n && text.charAt(i + 1) == '*') {
+                int end = text.indexOf("*/", i + 2);
+                end = end < 0 ? n : end + 2;
+                line += lines(text, i, end);
+                i = end;
+            } else if (ch == '$' && dollarTag(text, i) > 0) {
+                int len = dollarTag(text, i);
+                int end = text.indexOf(text.substring(i, i + len), i + len);
+                end = end < 0 ? n : end + len;
+                line += lines(text, i, end);
+                i = end;
+            } else if (Character.isLetter(ch) || ch == '_') {
+                int end = i + 1;
+                while (end < n && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '_')) end++;
+                String word = text.substring(i, end).toUpperCase(Locale.ROOT);
+                if (words) {
+                    if (head.length() > 0) head.append(' ');
+                    head.append(word);
+                    if (word.equals("TRIGGER") && head.toString().startsWith("CREATE")) trigger = true;
+                    if (head.length() > 40 || !(word.equals("CREATE") || word.equals("TEMP") || word.equals("TEMPORARY")
+                            || word.equals("OR") || word.equals("REPLACE"))) {
+                        words = false;
+                    }
+                }
+                if (trigger) {
+                    if (word.equals("BEGIN") || word.equals("CASE")) depth++;
+                    else if (word.equals("END") && depth > 0) depth--;
+                }
+                i = end;
+            } else if (ch == ';' && depth == 0) {
+                add(statements, text.substring(start, i), startLine);
+                i++;
+                start = i;
+                startLine = line;
+                trigger = false;
+                words = true;
+                head.setLength(0);
+            } else {
+                i++;
+            }
+        }
+        add(statements, text.substring(start), startLine);
+        return statements;
+    }
+
+    private static void add(List<SqlScript> statements, String sql, int line) {
+        String s = sql.trim();
+        String keyword = firstKeyword(s);
+        if (keyword.isEmpty()) return;      // only comments
+        for (int i = 0; i < sql.length() && Character.isWhitespace(sql.charAt(i)); i++) {
+            if (sql.charAt(i) == '\n') line++;
+        }
+        statements.add(new SqlScript(s, line, kind(keyword, s)));
+    }
+
+    private static int kind(String keyword, String sql) {
+        switch (keyword) {
+            case "SELECT":
+            case "WITH":
+            case "VALUES":
+            case "EXPLAIN":
+            case "SHOW":
+            case "DESCRIBE":
+            case "DESC":
+            case "TABLE":
+                return QUERY;
+            case "PRAGMA":          // PRAGMA name = value returns no rows
+                return sql.indexOf('=') < 0 ? QUERY : CONTROL;
+            case "BEGIN":
+            case "START":
+            case "COMMIT":
+            case "END":
+            case "ROLLBACK":
+            case "SAVEPOINT":
+            case "RELEASE":
+            case "SET":
+            case "USE":
+            case "ATTACH":
+            case "DETACH":
+            case "VACUUM":
+                return CONTROL;
+            default:
+                return UPDATE;
+        }
+    }
+
+    /**
+     * False for statements which change the schema, as some drivers, like SQLite's, report the rows changed by
+     * the statement before them.
+     */
+    boolean changesRows() {
+        String keyword = firstKeyword(sql);
+        return kind == UPDATE && !(keyword.equals("CREATE") || keyword.equals("DROP") || keyword.equals("ALTER"));
+    }
+
+    /**
+     * The first word of the statement after comments and opening parentheses, in upper case.
+     */
+    static String firstKeyword(String sql) {
+        int n = sql.length(), i = 0;
+        while (i < n) {
+            char ch = sql.charAt(i);
+            if (Character.isWhitespace(ch) || ch == '(') {
+                i++;
+            } else if (ch == '-' && i + 1 < n && sql.charAt(i + 1) == '-') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? n : end;
+            } else if (ch == '/' && i + 1 < n && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 2;
+            } else {
+                break;
+            }
+        }
+        int end = i;
+        while (end < n && Character.isLetter(sql.charAt(end))) end++;
+        return end == i && i < n ? "?" : sql.substring(i, end).toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * The end of a quoted string or name after its closing quote, where a doubled quote doesn't close it.
+     */
+    private static int closing(String text, int from, char quote) {
+        int n = text.length();
+        for (int i = from; i < n; i++) {
+            if (text.charAt(i) != quote) continue;
+            if (i + 1 < n && text.charAt(i + 1) == quote) i++;
+            else return i + 1;
+        }
+        return n;
+    }
+
+    /**
+     * The length of a dollar quote tag like $$ or $body$ at the position, or 0 when there is none.
+     */
+    private static int dollarTag(String text, int at) {
+        if (at > 0 && (Character.isLetterOrDigit(text.charAt(at - 1)) || text.charAt(at - 1) == '_')) return 0;
+        int i = at + 1, n = text.length();
+        while (i < n && (Character.isLetter(text.charAt(i)) || text.charAt(i) == '_')) i++;
+        return i < n && text.charAt(i) == '$' ? i + 1 - at : 0;
+    }
+
+    private static int lines(String text, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+}
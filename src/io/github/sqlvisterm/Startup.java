@@ -0,0 +1,65 @@
+package io.github.sqlvisterm;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times the steps of starting the program for the "startup" command. The steps on the main thread run one
+ * after the other until the prompt shows up, while connecting to the database runs on a background thread.
+ */
+final class Startup {
+    private static final long MAIN = System.nanoTime();     // loaded at the start of main
+    private static final long MAIN_MILLIS = System.currentTimeMillis();
+
+    private static final class Step {
+        final String name, thread;
+        final long took, end;
+
+        Step(String name, String thread, long took, long end) {
+            this.name = name;
+            this.thread = thread;
+            this.took = took;
+            this.end = end;
+        }
+    }
+
+    private static final List<Step> steps = new ArrayList<>();
+
+    private Startup() {
+    }
+
+    /**
+     * The time main started, to pass to the first {@link #mark}.
+     */
+    static long begin() {
+        return MAIN;
+    }
+
+    /**
+     * Records a step which started at {@code since} and ends now. Returns now, the start of the next step.
+     */
+    static long mark(String name, long since) {
+        long now = System.nanoTime();
+        synchronized (steps) {
+            steps.add(new Step(name, Thread.currentThread().getName(), now - since, now - MAIN));
+        }
+        return now;
+    }
+
+    /**
+     * The steps with their duration and the time they ended, counted from the start of the JVM.
+     */
+    static List<String> report() {
+        long jvm = MAIN_MILLIS - ManagementFactory.getRuntimeMXBean().getStartTime();
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("%-14s  %-8s  %8s  %8s", "Step", "Thread", "Took ms", "At ms"));
+        lines.add(String.format("%-14s  %-8s  %8d  %8d", "JVM", "main", jvm, jvm));
+        synchronized (steps) {
+            for (Step s : steps) {
+                lines.add(String.format("%-14s  %-8s  %8.1f  %8.1f", s.name, s.thread, s.took / 1e6, jvm + s.end / 1e6));
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,137 @@
+package io.github.sqlvisterm;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prepared statements of one connection in least recently used order, so running a query with parameters
+ * again with other values reuses the statement the server has already parsed and planned. Once there are
+ * more than {@link #maxSize} statements the least recently used one is closed.
+ * <p>
+ * Queries name their parameters as :name or leave them as ?, which {@link #parse} turns into the ? of JDBC.
+ */
+class StatementCache {
+    /**
+     * SQL with its parameters replaced by ?, and the name of each parameter in order: the name after the
+     * colon in lower case, or 1, 2, 3 ... for the ?s.
+     */
+    static final class Parsed {
+        final String sql;
+        final List<String> names;
+
+        Parsed(String sql, List<String> names) {
+            this.sql = sql;
+            this.names = names;
+        }
+    }
+
+    private final Connection conn;
+    private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+    int maxSize;
+    long hits, misses;
+
+    StatementCache(Connection conn, int maxSize) {
+        this.conn = conn;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * The prepared statement for the SQL, prepared now with the cursor type and concurrency if it isn't
+     * cached or was closed.
+     */
+    synchronized PreparedStatement get(String sql, int type, int concurrency) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps != null && !ps.isClosed()) {
+            hits++;
+            return ps;
+        }
+        misses++;
+        ps = conn.prepareStatement(sql, type, concurrency);
+        statements.put(sql, ps);
+        Iterator<Map.Entry<String, PreparedStatement>> it = statements.entrySet().iterator();
+        while (statements.size() > Math.max(maxSize, 1) && it.hasNext()) {
+            PreparedStatement eldest = it.next().getValue();
+            it.remove();
+            close(eldest);
+        }
+        return ps;
+    }
+
+    synchronized int size() {
+        return statements.size();
+    }
+
+    /**
+     * Closes all statements, for example when the cursor type of new statements changes.
+     */
+    synchronized void clear() {
+        statements.values().forEach(StatementCache::close);
+        statements.clear();
+    }
+
+    private static void close(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            // the connection may be gone already
+        }
+    }
+
+    /**
+     * Finds the :name and ? parameters outside quoted strings and names, comments and dollar quoted bodies.
+     * A colon after another one, as in the PostgreSQL cast value::int, doesn't start a parameter.
+     */
+    static Parsed parse(String sql) {
+        List<String> names = null;
+        StringBuilder sb = null;
+        int n = sql.length(), copied = 0, positional = 0;
+        for (int i = 0; i < n; i++) {
+            char ch = sql.charAt(i);
+            if (ch == '\'' || ch == '"' || ch == '`') {
+                int end = sql.indexOf(ch, i + 1);
+                while (end >= 0 && end + 1 < n && sql.charAt(end + 1) == ch) end = sql.indexOf(ch, end + 2);
+                i = end < 0 ? n : end;
+            } else if (ch == '-' && i + 1 < n && sql.charAt(i + 1) == '-') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? n : end;
+            } else if (ch == '/' && i + 1 < n && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 1;
+            } else if (ch == '$' && i + 1 < n && sql.charAt(i + 1) == '$') {
+                int end = sql.indexOf("$$", i + 2);
+                i = end < 0 ? n : end + 1;
+            } else if (ch == '?' || ch == ':' && i + 1 < n && isNameStart(sql.charAt(i + 1))
+                    && (i == 0 || sql.charAt(i - 1) != ':')) {
+                int end = i + 1;
+                String name;
+                if (ch == '?') {
+                    name = String.valueOf(++positional);
+                } else {
+                    while (end < n && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_')) end++;
+                    name = sql.substring(i + 1, end).toLowerCase();
+                }
+                if (names == null) {
+                    names = new ArrayList<>();
+                    sb = new StringBuilder(n);
+                }
+                names.add(name);
+                sb.append(sql, copied, i).append('?');
+                copied = end;
+                i = end - 1;
+            }
+        }
+        if (names == null) return new Parsed(sql, Collections.emptyList());
+        return new Parsed(sb.append(sql, copied, n).toString(), names);
+    }
+
+    private static boolean isNameStart(char ch) {
+        return Character.isLetter(ch) || ch == '_';
+    }
+}
@@ -0,0 +1,169 @@
+package io.github.sqlvisterm;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Merging t-digest (Dunning and Ertl) for approximate quantiles. Values are buffered and folded into a small,
+ * sorted set of weighted centroids, which are kept tight near the tails so p99 stays accurate. Two digests
+ * merge by folding the centroids of one into the other, so parts of a column can be summarised in parallel.
+ */
+final class TDigest {
+    private static final double COMPRESSION = 100;
+    private static final int BUFFER = 2000;
+
+    private double[] mean = new double[64];
+    private double[] weight = new double[64];
+    private int count;
+    private final double[] bufMean = new double[BUFFER];
+    private final double[] bufWeight = new double[BUFFER];
+    private int buffered;
+    private double total;
+    private double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+    void add(double x) {
+        add(x, 1);
+    }
+
+    private void add(double x, double w) {
+        if (buffered == BUFFER) compress();
+        bufMean[buffered] = x;
+        bufWeight[buffered++] = w;
+        total += w;
+        if (x < min) min = x;
+        if (x > max) max = x;
+    }
+
+    void merge(TDigest other) {
+        other.compress();
+        for (int i = 0; i < other.count; i++) add(other.mean[i], other.weight[i]);
+        if (other.min < min) min = other.min;
+        if (other.max > max) max = other.max;
+    }
+
+    /**
+     * Scale function k1: centroids may span one unit of k, which is less weight near q = 0 and q = 1.
+     */
+    private static double k(double q) {
+        return COMPRESSION / (2 * Math.PI) * Math.asin(2 * q - 1);
+    }
+
+    private static double q(double k) {
+        return (Math.sin(Math.min(k, COMPRESSION / 4) * 2 * Math.PI / COMPRESSION) + 1) / 2;
+    }
+
+    /**
+     * Sorts the buffer into the centroids and merges neighbours as long as the merged centroid spans less
+     * than one unit of the k scale.
+     */
+    private void compress() {
+        if (buffered == 0) return;
+        int n = count + buffered;
+        double[] m = new double[n], w = new double[n];
+        System.arraycopy(mean, 0, m, 0, count);
+        System.arraycopy(weight, 0, w, 0, count);
+        System.arraycopy(bufMean, 0, m, count, buffered);
+        System.arraycopy(bufWeight, 0, w, count, buffered);
+        buffered = 0;
+        sort(m, w, 0, n - 1);
+
+        if (mean.length < n) {
+            mean = new double[n];
+            weight = new double[n];
+        }
+        count = 0;
+        double curMean = m[0], curWeight = w[0], before = 0;
+        double limit = q(k(0) + 1) * total;       // weight up to which the current centroid may grow
+        for (int i = 1; i < n; i++) {
+            double merged = curWeight + w[i];
+            if (before + merged <= limit) {
+                curMean += (m[i] - curMean) * w[i] / merged;
+                curWeight = merged;
+            } else {
+                mean[count] = curMean;
+                weight[count++] = curWeight;
+                before += curWeight;
+                limit = q(k(before / total) + 1) * total;
+                curMean = m[i];
+                curWeight = w[i];
+            }
+        }
+        mean[count] = curMean;
+        weight[count++] = curWeight;
+    }
+
+    private static void sort(double[] m, double[] w, int lo, int hi) {
+        while (lo < hi) {
+            double pivot = m[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (m[i] < pivot) i++;
+                while (m[j] > pivot) j--;
+                if (i <= j) {
+                    double t = m[i];
+                    m[i] = m[j];
+                    m[j] = t;
+                    t = w[i];
+                    w[i] = w[j];
+                    w[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (j - lo < hi - i) {      // recurse into the smaller half
+                sort(m, w, lo, j);
+                lo = i;
+            } else {
+                sort(m, w, i, hi);
+                hi = j;
+            }
+        }
+    }
+
+    /**
+     * Estimates the value below which the fraction {@code q} of the values lie, interpolating between the
+     * centres of neighbouring centroids. Exact for small inputs where every centroid holds a single value.
+     */
+    double quantile(double q) {
+        compress();
+        if (count == 0) return Double.NaN;
+        if (count == 1) return mean[0];
+        double index = q * total;
+        if (index < weight[0] / 2) return min + (mean[0] - min) * index / (weight[0] / 2);
+        double cum = weight[0] / 2;
+        for (int i = 0; i < count - 1; i++) {
+            double dw = (weight[i] + weight[i + 1]) / 2;
+            if (cum + dw > index) return mean[i] + (index - cum) / dw * (mean[i + 1] - mean[i]);
+            cum += dw;
+        }
+        double half = weight[count - 1] / 2;
+        return mean[count - 1] + (max - mean[count - 1]) * Math.min(1, (index - cum) / half);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        compress();
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeDouble(mean[i]);
+            out.writeDouble(weight[i]);
+        }
+    }
+
+    static TDigest read(ByteBuffer buf) {
+        TDigest d = new TDigest();
+        d.min = buf.getDouble();
+        d.max = buf.getDouble();
+        d.count = buf.getInt();
+        d.mean = new double[Math.max(d.count, 1)];
+        d.weight = new double[d.mean.length];
+        for (int i = 0; i < d.count; i++) {
+            d.mean[i] = buf.getDouble();
+            d.weight[i] = buf.getDouble();
+            d.total += d.weight[i];
+        }
+        return d;
+    }
+}
@@ -0,0 +1,256 @@
+package io.github.sqlvisterm;
+
+import org.jline.keymap.BindingReader;
+import org.jline.keymap.KeyMap;
+import org.jline.terminal.Attributes;
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+import org.jline.utils.AttributedString;
+import org.jline.utils.AttributedStringBuilder;
+import org.jline.utils.AttributedStyle;
+import org.jline.utils.Display;
+import org.jline.utils.InfoCmp.Capability;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.jline.keymap.KeyMap.ctrl;
+import static org.jline.keymap.KeyMap.key;
+
+/**
+ * Full screen view of a query which runs again every few seconds. Rows are told apart by a hash of their
+ * values, so a row which was already on the screen is not formatted again as long as the column widths and
+ * bar scales stay the same, and {@link Display} only sends the lines, and the parts of lines, which differ
+ * from what the terminal shows.
+ */
+class WatchView {
+    interface Snapshot extends ResultViewer.Source {
+        long rowHash(int r);
+
+        /**
+         * Differs between two results when their rows are laid out differently, as then no row looks the same.
+         */
+        String layout();
+
+        void close();
+    }
+
+    interface Query {
+        Snapshot run() throws Exception;
+    }
+
+    private enum Operation {LINE_DOWN, LINE_UP, PAGE_DOWN, PAGE_UP, HOME, END, EXIT}
+
+    private final Terminal terminal;
+    private final Query query;
+    private final long period;      // millis
+    private final Runnable cancel;
+    private final Size size = new Size();
+    private final BindingReader bindingReader;
+    private final Object lock = new Object();
+    private Display display;
+
+    // guarded by lock
+    private Snapshot current;
+    private long[] hashes = new long[0];
+    private Map<Long, AttributedString> lines = new HashMap<>();     // rows on the screen by hash
+    private String layout;
+    private AttributedString header, rule;
+    private int top, changed, runs;
+    private long ranAt, took;
+    private String error;
+
+    WatchView(Terminal terminal, Query query, long period, Runnable cancel) {
+        this.terminal = terminal;
+        this.query = query;
+        this.period = period;
+        this.cancel = cancel;
+        this.bindingReader = new BindingReader(terminal.reader());
+    }
+
+    private int pageSize() {
+        return Math.max(1, size.getRows() - 3);     // header, rule and status line
+    }
+
+    /**
+     * Runs the query and shows the result. Rows with a hash which is not at the same position in the previous
+     * result count as changed.
+     */
+    private void tick() {
+        try {
+            long start = System.nanoTime();
+            Snapshot next = query.run();
+            long time = System.nanoTime() - start;
+            long[] h = new long[next.rowCount()];
+            int diff = Math.max(0, hashes.length - h.length);       // rows gone from the end
+            for (int r = 0; r < h.length; r++) {
+                h[r] = next.rowHash(r);
+                if (r >= hashes.length || h[r] != hashes[r]) diff++;
+            }
+            synchronized (lock) {
+                if (current != null) current.close();
+                current = next;
+                hashes = h;
+                changed = runs == 0 ? h.length : diff;
+                runs++;
+                took = time;
+                ranAt = System.currentTimeMillis();
+                error = null;
+                scrollTo(top);
+                draw();
+            }
+        } catch (Exception e) {
+            synchronized (lock) {
+                error = e.getMessage() != null ? e.getMessage() : e.toString();
+                ranAt = System.currentTimeMillis();
+                draw();
+            }
+        }
+    }
+
+    /**
+     * Updates the screen. Only the visible rows are looked at, and only those with a hash which wasn't on the
+     * screen before are formatted.
+     */
+    private void draw() {
+        size.copy(terminal.getSize());
+        display.resize(size.getRows(), size.getColumns());
+        int width = size.getColumns();
+        List<AttributedString> out = new ArrayList<>(size.getRows());
+        if (current != null) {
+            String key = current.layout() + '/' + width;
+            if (!key.equals(layout)) {
+                layout = key;
+                lines.clear();
+                header = clip(current.header(0, width), width);
+                rule = clip(current.rule(), width);
+            }
+            out.add(header);
+            out.add(rule);
+            int bottom = Math.min(hashes.length, top + pageSize());
+            Map<Long, AttributedString> shown = new HashMap<>(2 * (bottom - top) + 1);
+            for (int r = top; r < bottom; r++) {
+                AttributedString row = lines.get(hashes[r]);
+                if (row == null) row = shown.get(hashes[r]);
+                if (row == null) row = clip(current.row(r, 0, width), width);
+                shown.put(hashes[r], row);
+                out.add(row);
+            }
+            lines = shown;
+        }
+        while (out.size() < size.getRows() - 1) {
+            out.add(AttributedString.EMPTY);
+        }
+
+        double secs = took / 1e9;
+        String status = error != null ? String.format("Every %s | %tT | %s | q: quit", every(), ranAt, error)
+                : runs == 0 ? String.format("Every %s | running ... | q: quit", every())
+                : String.format("Every %s | %tT | Rows %,d-%,d of %,d | %,d changed | %.3f s | Up/Down PgUp/PgDn Home/End, q: quit",
+                every(), ranAt, hashes.length == 0 ? 0 : top + 1, Math.min(hashes.length, top + pageSize()), hashes.length,
+                changed, secs);
+        out.add(new AttributedStringBuilder().append(status, AttributedStyle.INVERSE).toAttributedString()
+                .columnSubSequence(0, width));
+        display.update(out, size.cursorPos(size.getRows() - 1, 0));
+    }
+
+    private String every() {
+        return period % 1000 == 0 ? period / 1000 + " s" : String.format("%.1f s", period / 1000.0);
+    }
+
+    private static AttributedString clip(String ansi, int width) {
+        return AttributedString.fromAnsi(ansi).columnSubSequence(0, width);
+    }
+
+    private void scrollTo(int row) {
+        top = Math.max(0, Math.min(row, hashes.length - pageSize()));
+    }
+
+    private void bindKeys(KeyMap<Operation> map) {
+        map.bind(Operation.LINE_DOWN, "j", "\r", key(terminal, Capability.key_down));
+        map.bind(Operation.LINE_UP, "k", key(terminal, Capability.key_up));
+        map.bind(Operation.PAGE_DOWN, " ", "f", ctrl('F'), key(terminal, Capability.key_npage));
+        map.bind(Operation.PAGE_UP, "b", ctrl('B'), key(terminal, Capability.key_ppage));
+        map.bind(Operation.HOME, "<", key(terminal, Capability.key_home));
+        map.bind(Operation.END, ">", "G", key(terminal, Capability.key_end));
+        map.bind(Operation.EXIT, "q", ctrl('C'));
+    }
+
+    /**
+     * Runs the query every period until q or Ctrl-C is pressed. A run which takes longer than the period
+     * delays the next one, runs never overlap.
+     */
+    public void show() {
+        display = new Display(terminal, true);
+        Attributes attr = terminal.enterRawMode();
+        Attributes raw = new Attributes(terminal.getAttributes());
+        raw.setLocalFlag(Attributes.LocalFlag.ISIG, false);        // Ctrl-C is read as a key
+        terminal.setAttributes(raw);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "watch");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            terminal.puts(Capability.enter_ca_mode);
+            terminal.puts(Capability.keypad_xmit);
+            terminal.writer().flush();
+            synchronized (lock) {
+                size.copy(terminal.getSize());
+                display.clear();
+                display.reset();
+                draw();
+            }
+            scheduler.scheduleAtFixedRate(this::tick, 0, period, TimeUnit.MILLISECONDS);
+            KeyMap<Operation> keyMap = new KeyMap<>();
+            bindKeys(keyMap);
+            while (true) {
+                Operation op = bindingReader.readBinding(keyMap);
+                if (op == null || op == Operation.EXIT) return;
+                synchronized (lock) {
+                    switch (op) {
+                        case LINE_DOWN:
+                            scrollTo(top + 1);
+                            break;
+                        case LINE_UP:
+                            scrollTo(top - 1);
+                            break;
+                        case PAGE_DOWN:
+                            scrollTo(top + pageSize());
+                            break;
+                        case PAGE_UP:
+                            scrollTo(top - pageSize());
+                            break;
+                        case HOME:
+                            top = 0;
+                            break;
+                        case END:
+                            scrollTo(hashes.length);
+                            break;
+                    }
+                    draw();
+                }
+            }
+        } finally {
+            scheduler.shutdown();
+            cancel.run();
+            try {
+                scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (lock) {
+                if (current != null) current.close();
+                current = null;
+            }
+            terminal.setAttributes(attr);
+            terminal.puts(Capability.exit_ca_mode);
+            terminal.puts(Capability.keypad_local);
+            terminal.writer().flush();
+        }
+    }
+}
@@ -0,0 +1,3 @@
+log off
+refresh schema
+quit